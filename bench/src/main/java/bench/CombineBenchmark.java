@@ -0,0 +1,89 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import map.MapResult;
+import map.MapTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reduce.HistogramMergeTask;
+import reduce.ReduceTask;
+import util.LengthHistogram;
+
+
+/**
+ * The combine step alone: merging all the dictionaries of each document,
+ * sequentially or as a fork-join tree reduction
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombineBenchmark {
+    @Param({"2", "4"})
+    public int workers;
+
+    @Param({"64", "4096"})
+    public int fragmentSize;
+
+    @Param({"alls_well", "mixed"})
+    public String corpus;
+
+    private ReduceTask[] reduceTasks;
+    private ForkJoinPool mergePool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Path> docs = Corpus.resolve(corpus);
+        long[] docDims = Engine.docDims(docs);
+        List<MapTask> mapTasks = Engine.mapTasks(docs, docDims, fragmentSize);
+        MapResult[] mapResults = Engine.map(mapTasks, Engine.separatorsMask(),
+                                            docDims, fragmentSize, workers);
+        reduceTasks = Engine.reduceTasks(docs, mapTasks, mapResults);
+        mergePool = new ForkJoinPool(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mergePool.shutdown();
+    }
+
+    @Benchmark
+    public LengthHistogram[] sequential() {
+        LengthHistogram[] combined = new LengthHistogram[reduceTasks.length];
+        for (int i = 0; i < reduceTasks.length; i++) {
+            combined[i] = new LengthHistogram();
+            for (var dictionary : reduceTasks[i].getAppsDictionaries()) {
+                combined[i].merge(dictionary);
+            }
+        }
+        return combined;
+    }
+
+    @Benchmark
+    public LengthHistogram[] tree() {
+        LengthHistogram[] combined = new LengthHistogram[reduceTasks.length];
+        for (int i = 0; i < reduceTasks.length; i++) {
+            var dictionaries = reduceTasks[i].getAppsDictionaries();
+            combined[i] = mergePool.invoke(
+                new HistogramMergeTask(dictionaries, 0, dictionaries.size()));
+        }
+        return combined;
+    }
+}
@@ -0,0 +1,159 @@
+package bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * The sets of documents used by the benchmarks: the ones from tests/files
+ * and synthetic text generated once into the temporary directory
+ */
+public final class Corpus {
+    /** the size of a synthetic document, small enough to be memory mapped */
+    private static final long SYNTHETIC_DOC_SIZE = 512L << 20;
+    /** how many times the tiny documents are repeated in skewed */
+    private static final int SKEWED_COPIES = 32;
+    private static final byte[] SEPARATORS = " ,.;\n".getBytes();
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name one of sonnets, alls_well, mixed, skewed, all or
+     * synthetic_<MB>m
+     * @return the documents of the corpus
+     */
+    public static List<Path> resolve(String name) {
+        Path files = testsFolder().resolve("files");
+
+        switch (name) {
+            case "sonnets":
+                return list(files, "sonnets_10", "sonnets_20", "sonnets_30",
+                            "sonnets_40", "sonnets_50", "sonnets_all");
+            case "alls_well":
+                return list(files, "alls_well_act1", "alls_well_act2",
+                            "alls_well_act3", "alls_well_act4",
+                            "alls_well_act5", "alls_well_full");
+            case "mixed":
+                // one big document between small ones, the skewed case
+                return list(files, "in1", "alls_well_full", "in2", "in3");
+            case "skewed":
+                // many tiny documents before a big one: with the static
+                // scheduling, the first workers get only the tiny tasks and
+                // the last ones all the big document
+                List<Path> skewed = new ArrayList<>();
+                for (int i = 0; i < SKEWED_COPIES; i++) {
+                    skewed.addAll(list(files, "in1", "in2", "in3"));
+                }
+                skewed.addAll(list(files, "alls_well_full"));
+                return skewed;
+            case "all":
+                List<Path> all = new ArrayList<>(resolve("sonnets"));
+                all.addAll(resolve("alls_well"));
+                return all;
+            default:
+                if (name.startsWith("synthetic_") && name.endsWith("m")) {
+                    long megabytes = Long.parseLong(
+                        name.substring("synthetic_".length(),
+                                       name.length() - 1));
+                    return synthetic(megabytes << 20);
+                }
+                throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+    }
+
+    public static long totalBytes(List<Path> docs) {
+        long total = 0;
+        for (Path doc : docs) {
+            try {
+                total += Files.size(doc);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The tests folder is searched in the working directory and in its
+     * parent (the benchmarks are usually started from bench/), unless it is
+     * given by the bench.tests property
+     */
+    static Path testsFolder() {
+        String property = System.getProperty("bench.tests");
+        if (property != null) {
+            return Paths.get(property);
+        }
+        Path tests = Paths.get("tests");
+        if (!Files.isDirectory(tests)) {
+            tests = Paths.get("..", "tests");
+        }
+        return tests.toAbsolutePath().normalize();
+    }
+
+    private static List<Path> list(Path folder, String... names) {
+        List<Path> docs = new ArrayList<>();
+        for (String name : names) {
+            docs.add(folder.resolve(name));
+        }
+        return docs;
+    }
+
+    /**
+     * Generates (only the first time) documents with random words having
+     * lengths skewed towards short ones, like in English text
+     */
+    private static List<Path> synthetic(long totalSize) {
+        Path folder = Paths.get(System.getProperty("java.io.tmpdir"),
+                                "map-reduce-bench",
+                                "synthetic_" + (totalSize >> 20) + "m");
+        List<Path> docs = new ArrayList<>();
+        Random random = new Random(totalSize);
+
+        try {
+            Files.createDirectories(folder);
+            for (long left = totalSize, k = 0; left > 0; k++) {
+                long size = Math.min(left, SYNTHETIC_DOC_SIZE);
+                Path doc = folder.resolve("doc" + k);
+                if (!Files.exists(doc) || Files.size(doc) != size) {
+                    generate(doc, size, random);
+                }
+                docs.add(doc);
+                left -= size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return docs;
+    }
+
+    private static void generate(Path doc, long size, Random random)
+            throws IOException {
+        try (OutputStream out
+                     = new BufferedOutputStream(Files.newOutputStream(doc),
+                                                1 << 20)) {
+            long written = 0;
+            while (written < size) {
+                // the minimum of two uniform lengths favours short words
+                int wordLen = 1 + Math.min(random.nextInt(16),
+                                           random.nextInt(16));
+                for (int i = 0; i < wordLen && written < size; i++) {
+                    out.write('a' + random.nextInt(26));
+                    written++;
+                }
+                if (written < size) {
+                    out.write(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+                    written++;
+                }
+            }
+        }
+    }
+}
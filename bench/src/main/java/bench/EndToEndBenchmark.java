@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * A whole run of the homework, from reading the input file to writing the
+ * output (Tema2 lives in the default package, so it is called through
+ * reflection)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EndToEndBenchmark {
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"4096", "65536"})
+    public int fragmentSize;
+
+    @Param({"sonnets", "all", "mixed"})
+    public String corpus;
+
+    /** the options given after the 3 mandatory arguments */
+    @Param({"", "--mmap --dynamic --combine", "--streaming --combine",
+            "--backend forkjoin", "--backend virtual", "--mmap --simd"})
+    public String options;
+
+    private long totalBytes;
+    private Path inputFile;
+    private Path outputFile;
+    private String[] args;
+    private Method main;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<Path> docs = Corpus.resolve(corpus);
+        totalBytes = Corpus.totalBytes(docs);
+
+        List<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(fragmentSize));
+        lines.add(Integer.toString(docs.size()));
+        for (Path doc : docs) {
+            lines.add(doc.toString());
+        }
+        inputFile = Files.createTempFile("bench_in", ".txt");
+        outputFile = Files.createTempFile("bench_out", ".txt");
+        Files.write(inputFile, lines);
+
+        List<String> argsList = new ArrayList<>(List.of(
+            Integer.toString(workers), inputFile.toString(),
+            outputFile.toString()));
+        if (!options.isEmpty()) {
+            argsList.addAll(List.of(options.split(" ")));
+        }
+        args = argsList.toArray(new String[0]);
+        main = Class.forName("Tema2").getMethod("main", String[].class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(inputFile);
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public void solve(Throughput throughput) throws Exception {
+        main.invoke(null, (Object) args);
+        throughput.add(totalBytes);
+    }
+}
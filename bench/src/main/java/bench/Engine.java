@@ -0,0 +1,99 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import map.MapResult;
+import map.MapTask;
+import map.MapWorker;
+import reduce.ReduceTask;
+
+
+/**
+ * Prepares the input of the map and reduce steps in the same way as the
+ * Solver does, so that the steps can be measured one by one
+ */
+final class Engine {
+    private static final String SEPARATORS
+        = ";:/?~\\.,><`[]{}()!@#$%^&-_+'=*\"| \t\r\n";
+
+    private Engine() {
+    }
+
+    static boolean[] separatorsMask() {
+        boolean[] separatorsMask = new boolean[256];
+        for (char c : SEPARATORS.toCharArray()) {
+            separatorsMask[c] = true;
+        }
+        separatorsMask[0] = true;
+        return separatorsMask;
+    }
+
+    static long[] docDims(List<Path> docs) {
+        long[] docDims = new long[docs.size()];
+        for (int i = 0; i < docDims.length; i++) {
+            docDims[i] = Corpus.totalBytes(List.of(docs.get(i)));
+        }
+        return docDims;
+    }
+
+    static List<MapTask> mapTasks(List<Path> docs, long[] docDims, int D) {
+        List<MapTask> mapTasks = new ArrayList<>();
+        for (int i = 0; i < docDims.length; i++) {
+            for (long j = 0; j < docDims[i]; j += D) {
+                var delta = docDims[i] - j;
+                mapTasks.add(new MapTask(docs.get(i).toString(), j,
+                                         (delta >= D) ? D : delta, i));
+            }
+        }
+        return mapTasks;
+    }
+
+    /** Runs the map step with the static scheduling of the Solver */
+    static MapResult[] map(List<MapTask> mapTasks, boolean[] separatorsMask,
+                           long[] docDims, int D, int workers) {
+        MapResult[] mapResults = new MapResult[mapTasks.size()];
+        Thread[] mapWorkers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            mapWorkers[i] = new MapWorker(i, workers, mapTasks,
+                                          separatorsMask, docDims, D,
+                                          mapResults);
+        }
+        runAll(mapWorkers);
+        return mapResults;
+    }
+
+    static ReduceTask[] reduceTasks(List<Path> docs, List<MapTask> mapTasks,
+                                    MapResult[] mapResults) {
+        ReduceTask[] reduceTasks = new ReduceTask[docs.size()];
+        for (int i = 0; i < reduceTasks.length; i++) {
+            reduceTasks[i] = new ReduceTask(docs.get(i).toString());
+        }
+        for (int i = 0; i < mapResults.length; i++) {
+            if (mapResults[i] == null) {
+                continue;
+            }
+            int docId = mapTasks.get(i).getDocId();
+            reduceTasks[docId].getAppsDictionaries()
+                              .add(mapResults[i].getDictionary());
+            reduceTasks[docId].getLongestWordsParts()
+                              .add(mapResults[i].getLongestWords());
+        }
+        return reduceTasks;
+    }
+
+    static void runAll(Thread[] workers) {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
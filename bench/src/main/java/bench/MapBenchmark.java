@@ -0,0 +1,113 @@
+package bench;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import map.MapResult;
+import map.MapTask;
+import map.MapWorker;
+import map.SeparatorClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The map step alone: the workers tokenize all the fragments of a corpus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MapBenchmark {
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"4096", "65536"})
+    public int fragmentSize;
+
+    @Param({"sonnets", "alls_well", "mixed"})
+    public String corpus;
+
+    /** static, dynamic, combine, mmap or simd */
+    @Param({"static", "dynamic", "combine", "mmap", "simd"})
+    public String mode;
+
+    private List<Path> docs;
+    private long[] docDims;
+    private long totalBytes;
+    private boolean[] separatorsMask;
+    private List<MapTask> mapTasks;
+    private MappedByteBuffer[] docBuffers;
+    private SeparatorClassifier classifier;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        docs = Corpus.resolve(corpus);
+        docDims = Engine.docDims(docs);
+        totalBytes = Corpus.totalBytes(docs);
+        separatorsMask = Engine.separatorsMask();
+        mapTasks = Engine.mapTasks(docs, docDims, fragmentSize);
+
+        if (mode.equals("simd")) {
+            classifier = SeparatorClassifier.loadVectorized(separatorsMask);
+            if (classifier == null) {
+                throw new IllegalStateException("Vector API not available");
+            }
+        }
+
+        if (mode.equals("mmap")) {
+            docBuffers = new MappedByteBuffer[docs.size()];
+            for (int i = 0; i < docBuffers.length; i++) {
+                try (RandomAccessFile raf
+                             = new RandomAccessFile(docs.get(i).toFile(),
+                                                    "r")) {
+                    docBuffers[i] = raf.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, docDims[i]);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void map(Throughput throughput, Blackhole blackhole) {
+        MapResult[] mapResults = new MapResult[mapTasks.size()];
+        MapWorker[] mapWorkers = new MapWorker[workers];
+        AtomicInteger taskCursor = new AtomicInteger(0);
+        int chunkSize = Math.max(1, mapTasks.size() / (workers * 16));
+
+        for (int i = 0; i < workers; i++) {
+            mapWorkers[i] = new MapWorker(i, workers, mapTasks,
+                                          separatorsMask, docDims,
+                                          fragmentSize, mapResults,
+                                          docBuffers);
+            if (mode.equals("dynamic")) {
+                mapWorkers[i].setTaskCursor(taskCursor, chunkSize);
+            }
+            mapWorkers[i].setCombining(mode.equals("combine"));
+            mapWorkers[i].setClassifier(classifier);
+        }
+        Engine.runAll(mapWorkers);
+
+        blackhole.consume(mapResults);
+        throughput.add(totalBytes);
+    }
+}
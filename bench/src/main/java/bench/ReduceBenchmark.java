@@ -0,0 +1,75 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import map.MapResult;
+import map.MapTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reduce.RankFunction;
+import reduce.ReduceResult;
+import reduce.ReduceTask;
+import reduce.ReduceWorker;
+
+
+/**
+ * The reduce step alone (combine and rank) over map results prepared once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReduceBenchmark {
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"64", "4096"})
+    public int fragmentSize;
+
+    @Param({"sonnets", "alls_well", "mixed"})
+    public String corpus;
+
+    @Param({"fibonacci", "log"})
+    public String rankFunction;
+
+    private ReduceTask[] reduceTasks;
+    private RankFunction rank;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Path> docs = Corpus.resolve(corpus);
+        long[] docDims = Engine.docDims(docs);
+        List<MapTask> mapTasks = Engine.mapTasks(docs, docDims, fragmentSize);
+        MapResult[] mapResults = Engine.map(mapTasks, Engine.separatorsMask(),
+                                            docDims, fragmentSize, workers);
+        reduceTasks = Engine.reduceTasks(docs, mapTasks, mapResults);
+        rank = RankFunction.forName(rankFunction);
+    }
+
+    @Benchmark
+    public ReduceResult[] reduce() {
+        ReduceResult[] reduceResults = new ReduceResult[reduceTasks.length];
+        ReduceWorker[] reduceWorkers = new ReduceWorker[workers];
+        for (int i = 0; i < workers; i++) {
+            reduceWorkers[i] = new ReduceWorker(i, workers, reduceTasks,
+                                                reduceResults);
+            reduceWorkers[i].setRankFunction(rank);
+        }
+        Engine.runAll(reduceWorkers);
+        return reduceResults;
+    }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import map.MapResult;
+import map.MapTask;
+import map.MapWorker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The static scheduling of the map tasks (an equal range of tasks for each
+ * worker) against the dynamic one (chunks taken from a shared cursor) on
+ * corpora where the tasks have very different sizes; the difference only
+ * shows with at least as many cores as workers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SchedulingBenchmark {
+    @Param({"2", "4", "8"})
+    public int workers;
+
+    @Param({"1024", "4096"})
+    public int fragmentSize;
+
+    @Param({"mixed", "skewed"})
+    public String corpus;
+
+    /** static or dynamic */
+    @Param({"static", "dynamic"})
+    public String scheduling;
+
+    private List<Path> docs;
+    private long[] docDims;
+    private long totalBytes;
+    private boolean[] separatorsMask;
+    private List<MapTask> mapTasks;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        docs = Corpus.resolve(corpus);
+        docDims = Engine.docDims(docs);
+        totalBytes = Corpus.totalBytes(docs);
+        separatorsMask = Engine.separatorsMask();
+        mapTasks = Engine.mapTasks(docs, docDims, fragmentSize);
+    }
+
+    @Benchmark
+    public void map(Throughput throughput, Blackhole blackhole) {
+        MapResult[] mapResults = new MapResult[mapTasks.size()];
+        MapWorker[] mapWorkers = new MapWorker[workers];
+        AtomicInteger taskCursor = new AtomicInteger(0);
+        // the same chunks as the Solver takes with --dynamic
+        int chunkSize = Math.max(1, mapTasks.size() / (workers * 16));
+
+        for (int i = 0; i < workers; i++) {
+            mapWorkers[i] = new MapWorker(i, workers, mapTasks,
+                                          separatorsMask, docDims,
+                                          fragmentSize, mapResults);
+            if (scheduling.equals("dynamic")) {
+                mapWorkers[i].setTaskCursor(taskCursor, chunkSize);
+            }
+        }
+        Engine.runAll(mapWorkers);
+
+        blackhole.consume(mapResults);
+        throughput.add(totalBytes);
+    }
+}
@@ -0,0 +1,132 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import map.MapResult;
+import map.MapTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import store.WireFormat;
+import util.LengthHistogram;
+
+
+/**
+ * Encoding and decoding the map results of a corpus with WireFormat, against
+ * Java serialization of the original shape of a result (a HashMap from
+ * length to appearances and a List of words); the sizes of both encodings
+ * are printed in the setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({"64", "4096"})
+    public int fragmentSize;
+
+    @Param({"alls_well", "mixed"})
+    public String corpus;
+
+    private MapResult[] mapResults;
+    private ByteBuffer[] wireEncoded;
+    private byte[][] javaEncoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<Path> docs = Corpus.resolve(corpus);
+        long[] docDims = Engine.docDims(docs);
+        List<MapTask> mapTasks = Engine.mapTasks(docs, docDims, fragmentSize);
+        mapResults = Engine.map(mapTasks, Engine.separatorsMask(), docDims,
+                                fragmentSize, 1);
+
+        wireEncoded = wireEncode();
+        javaEncoded = javaEncode();
+        long wireBytes = 0;
+        long javaBytes = 0;
+        for (int i = 0; i < mapResults.length; i++) {
+            wireBytes += wireEncoded[i].remaining();
+            javaBytes += javaEncoded[i].length;
+        }
+        System.out.println(mapResults.length + " results: WireFormat "
+                           + wireBytes + " bytes, Java serialization "
+                           + javaBytes + " bytes");
+    }
+
+    @Benchmark
+    public ByteBuffer[] wireEncode() {
+        ByteBuffer[] encoded = new ByteBuffer[mapResults.length];
+        for (int i = 0; i < mapResults.length; i++) {
+            encoded[i] = WireFormat.encode(mapResults[i]);
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    public void wireDecode(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < wireEncoded.length; i++) {
+            blackhole.consume(WireFormat.read(wireEncoded[i].duplicate(),
+                                              null));
+        }
+    }
+
+    @Benchmark
+    public byte[][] javaEncode() throws IOException {
+        byte[][] encoded = new byte[mapResults.length][];
+        for (int i = 0; i < mapResults.length; i++) {
+            LengthHistogram dictionary = mapResults[i].getDictionary();
+            HashMap<Integer, Integer> counts = new HashMap<>();
+            for (int len = 1; len <= dictionary.getMaxLength(); len++) {
+                if (dictionary.get(len) != 0) {
+                    counts.put(len, dictionary.get(len));
+                }
+            }
+            ArrayList<String> words
+                = new ArrayList<>(mapResults[i].getLongestWords().getWords());
+
+            var bytes = new ByteArrayOutputStream();
+            try (var out = new ObjectOutputStream(bytes)) {
+                out.writeObject(counts);
+                out.writeObject(words);
+            }
+            encoded[i] = bytes.toByteArray();
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    public void javaDecode(Blackhole blackhole) throws IOException {
+        for (byte[] encoded : javaEncoded) {
+            try (var in = new ObjectInputStream(
+                    new ByteArrayInputStream(encoded))) {
+                blackhole.consume(in.readObject());
+                blackhole.consume(in.readObject());
+            } catch (ClassNotFoundException e) {
+                throw new UncheckedIOException(new IOException(e));
+            }
+        }
+    }
+}
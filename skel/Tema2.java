@@ -1,19 +1,52 @@
 import java.io.RandomAccessFile;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import dist.Coordinator;
+import map.FragmentPlanner;
 import map.MapResult;
+import map.MapResultSink;
 import map.MapTask;
 import map.MapWorker;
+import map.SeparatorClassifier;
+import reduce.RankFunction;
+import reduce.RankOrder;
 import reduce.ReduceResult;
 import reduce.ReduceTask;
 import reduce.ReduceWorker;
+import reduce.StreamingReducer;
+import store.IncrementalState;
+import store.ResultCache;
+import store.SpillBuffer;
+import util.BufferPool;
+import util.ExecutionBackend;
+import util.FairShareBackend;
+import util.GzipIndex;
+import util.LongestWords;
+import util.Metrics;
+import util.OutputBuffer;
+import util.Utf8Separators;
 
 
 class Solver {
@@ -28,12 +61,81 @@ class Solver {
     // if c is included in separators, then separatorMask[c] = true
     // this variable is used by map threads as a hashtable
     private boolean[] separatorsMask;
+    /** the separators above, with the non-ASCII ones added by the options */
+    private Utf8Separators utf8Separators;
 
     /** the dimension of a fragment from a document */
     private int D;
     private int noDocs;
     private String[] docNames;
     private long[] docDims;
+    /** the number of map tasks created for each document */
+    private int[] docFragments;
+    /** whether the documents are read through memory mapping */
+    private boolean memoryMapped;
+    /** the documents mapped into memory, shared by all the map workers */
+    private MappedByteBuffer[] docBuffers;
+    /** whether the map tasks are handed out dynamically to the workers */
+    private boolean dynamicScheduling;
+    /** whether the map workers keep the longest words of the fragments */
+    private boolean collectLongestWords = true;
+    /** how many distinct longest words are kept for a document */
+    private int wordsLimit = LongestWords.DEFAULT_LIMIT;
+    /** how many worker processes map the tasks, 0 for mapping in threads */
+    private int processes;
+    /** after how many tasks the first worker processes crash, -1 never */
+    private int processCrashAfter = -1;
+    /**
+     * whether the size of the fragments is chosen from the corpus, with the
+     * edges aligned to words, instead of taking D from the input file
+     */
+    private boolean autoFragmentSize;
+    /** the memory allowed for the map results, 0 for no limit */
+    private long memoryBudget;
+    /** keeps the map results under the budget, null if there is none */
+    private SpillBuffer spillBuffer;
+    /** how many fragments each map worker reads ahead, 0 for none */
+    private int prefetchDepth;
+    /** whether the documents are reduced while the map step is running */
+    private boolean streaming;
+    /** whether the map workers fold their fragments per document */
+    private boolean combining;
+    /** whether the documents are shared to reduce workers by their size */
+    private boolean balancedReduce;
+    /** gives the weight of each word length in the rank of a document */
+    private RankFunction rankFunction = RankFunction.FIBONACCI;
+    /** how many documents are written, the first ones by rank; 0 for all */
+    private int topDocuments;
+    /** runs the map and reduce workers; null until solve() is called */
+    private ExecutionBackend backend;
+    /** the name of the backend created by solve() if none was given */
+    private String backendName = "platform";
+    /** whether the backend was given from outside and must not be closed */
+    private boolean sharedBackend;
+    /** where the map workers take their buffers from; null if not shared */
+    private BufferPool bufferPool;
+    /** the results of the documents from previous runs; null if not used */
+    private ResultCache cache;
+    /**
+     * the results known from previous runs: the whole document if it was
+     * found in the cache, or the part processed before in incremental mode
+     */
+    private MapResult[] storedResults;
+    /** whether the result of a document was found in the cache */
+    private boolean[] docCached;
+    /** where the states of the appended documents are kept, or null */
+    private String incrementalFolder;
+    /** the states of the appended documents; null if not used */
+    private IncrementalState incrementalState;
+    /** the state loaded for each document (null if processed from 0) */
+    private IncrementalState.DocumentState[] docStates;
+    /** classifies the bytes by blocks in the map workers; null if not used */
+    private SeparatorClassifier classifier;
+    /** the members of the gzip documents, by id; null if there are none */
+    private GzipIndex[] gzipIndexes;
+    /** where the metrics of the run are written; null if not collected */
+    private String metricsFileName;
+    private Metrics metrics;
 
     private List<MapTask> mapTasks;
     /** here the map workers will put the data calculated for each task */
@@ -54,17 +156,293 @@ class Solver {
             separatorsMask[c] = true;
         }
         separatorsMask[0] = true;
+        utf8Separators = new Utf8Separators(separatorsMask);
+    }
+
+    /**
+     * Each document is mapped once into memory and all the map workers scan
+     * the mapped buffer directly, instead of copying every fragment through
+     * a RandomAccessFile (documents larger than 2GB are still read the old
+     * way, since a buffer can't be mapped over that size)
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * The map workers take chunks of tasks from a shared cursor instead of
+     * a fixed ceil(tasks / p) subinterval, meant to keep all of them busy
+     * when the documents differ a lot in density or when a core is loaded
+     * (the gain wasn't measured on several cores yet)
+     */
+    public void setDynamicScheduling(boolean dynamicScheduling) {
+        this.dynamicScheduling = dynamicScheduling;
+    }
+
+    /**
+     * The longest words are not written into the output, so the map workers
+     * can skip building them
+     */
+    public void setCollectLongestWords(boolean collectLongestWords) {
+        this.collectLongestWords = collectLongestWords;
+    }
+
+    /**
+     * Bounds the number of distinct longest words kept for a document (and
+     * for each of its fragments), so the memory doesn't grow with the number
+     * of words having the maximum length
+     * @param wordsLimit the maximum number of words, LongestWords.EXACT for
+     * keeping all of them
+     */
+    public void setWordsLimit(int wordsLimit) {
+        this.wordsLimit = wordsLimit;
+    }
+
+    /**
+     * The map tasks are sent to separate JVMs started on this machine,
+     * instead of the map threads; the options which affect only the map
+     * threads (mmap, dynamic scheduling, combining, backend) are ignored by
+     * the worker processes
+     * @param processes the number of worker processes, 0 for threads
+     */
+    public void setProcesses(int processes) {
+        this.processes = processes;
+    }
+
+    /**
+     * Makes the first worker processes crash after mapping some tasks, for
+     * checking that their tasks are mapped again by the other processes
+     */
+    public void setProcessCrashAfter(int processCrashAfter) {
+        this.processCrashAfter = processCrashAfter;
+    }
+
+    /**
+     * The size of the fragments is chosen from the size of the corpus and
+     * the number of workers (see FragmentPlanner), replacing D from the input
+     * file, and the edges of the fragments are moved to the ends of words
+     * when the tasks are created, so the map workers don't fix them
+     */
+    public void setAutoFragmentSize(boolean autoFragmentSize) {
+        this.autoFragmentSize = autoFragmentSize;
+    }
+
+    /**
+     * Limits the memory taken by the map results until the reduce step: the
+     * results over the budget are spilled to disk, merged by document, and
+     * read back when the reduce tasks are created (the streaming mode needs
+     * no limit, it keeps only one partial result per document)
+     * @param memoryBudget the limit in bytes, 0 for no limit
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * The map workers read their next fragments on a pool of p I/O threads
+     * while they tokenize the current one, instead of reading each fragment
+     * when they get to it (ignored for the documents mapped into memory,
+     * whose pages are already read ahead by the system)
+     * @param prefetchDepth how many fragments each worker reads ahead, 0 for
+     * none
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * The map results are merged into their documents as soon as they are
+     * ready and each document is reduced when its last fragment is mapped,
+     * so there is no barrier between the map and the reduce steps and the
+     * map results are not kept in memory until the end
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Each map worker folds the fragments it processes from a document into
+     * a single partial result, so the reduce step merges about p results per
+     * document instead of one for every fragment
+     */
+    public void setCombining(boolean combining) {
+        this.combining = combining;
+    }
+
+    /**
+     * The documents are assigned to the reduce workers by their size
+     * (longest processing time first) instead of in contiguous blocks of
+     * ceil(noDocs / p), and the dictionaries of a big document are merged in
+     * parallel by a tree reduction
+     */
+    public void setBalancedReduce(boolean balancedReduce) {
+        this.balancedReduce = balancedReduce;
+    }
+
+    /**
+     * Chooses the weight of each word length in the rank of a document, the
+     * Fibonacci sequence by default (see RankFunction.forName)
+     * @param name the name of the rank function
+     * @throws IllegalArgumentException if there is no such function
+     */
+    public void setRankFunction(String name) {
+        rankFunction = RankFunction.forName(name);
+    }
+
+    /**
+     * Only the first documents of the output are written: they are selected
+     * with a bounded heap, so the other results are not sorted
+     * @param topDocuments how many documents are written, 0 for all
+     */
+    public void setTopDocuments(int topDocuments) {
+        this.topDocuments = topDocuments;
+    }
+
+    /**
+     * The duration of each step and the counters of each worker are written
+     * as JSON into the given file at the end of the run
+     */
+    public void setMetricsFileName(String metricsFileName) {
+        this.metricsFileName = metricsFileName;
+    }
+
+    /**
+     * Chooses how the workers are run: platform (p threads, one per worker),
+     * forkjoin (more units than threads in a pool of p threads) or virtual
+     * (many units, each on its own virtual thread)
+     */
+    public void setBackendName(String backendName) {
+        this.backendName = backendName;
+    }
+
+    /**
+     * Runs the workers on a backend owned by the caller, which can be shared
+     * by several solvers (it is not closed at the end of the run)
+     */
+    public void setBackend(ExecutionBackend backend) {
+        this.backend = backend;
+        sharedBackend = true;
+    }
+
+    /**
+     * The map workers take their data buffers from a pool owned by the
+     * caller and give them back at the end, so the buffers are reused by the
+     * next runs
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * The documents which haven't changed since a previous run are taken
+     * from the cache instead of being mapped, and the results of the others
+     * are saved into the cache at the end of the run
+     * @param folder where the cache is kept
+     * @param maxBytes the maximum size of the cache
+     */
+    public void setCache(String folder, long maxBytes) {
+        cache = new ResultCache(folder, maxBytes);
+    }
+
+    /**
+     * Each document is supposed to only grow at its end: a run remembers the
+     * length processed and the data up to there, and the next run maps only
+     * the bytes appended meanwhile
+     * @param folder where the states of the documents are kept
+     */
+    public void setIncrementalState(String folder) {
+        incrementalFolder = folder;
+    }
+
+    /**
+     * Adds non-ASCII separators to the ASCII ones (the documents are read as
+     * UTF-8 in any case, the length of a word being its number of
+     * characters); since a separator may then take several bytes, the edges
+     * of the fragments are aligned to words when the tasks are created
+     * @param spec the separators, as described by Utf8Separators.parse
+     * @throws IllegalArgumentException if the separators are not valid
+     */
+    public void setUnicodeSeparators(String spec) {
+        utf8Separators = Utf8Separators.parse(separatorsMask, spec);
+    }
+
+    /**
+     * The map workers find the separators with the Vector API, 64 bytes at
+     * once, if its module is available (otherwise they test each byte)
+     */
+    public void setVectorized(boolean vectorized) {
+        classifier = null;
+        if (vectorized) {
+            classifier = SeparatorClassifier.loadVectorized(separatorsMask);
+            if (classifier == null) {
+                System.err.println("The Vector API is not available, the"
+                    + " separators are searched byte by byte");
+            }
+        }
     }
 
     public void solve() {
-        readInput();
-        createMapTasks();
-        // the map workers will put the results into mapResults
-        solveMapTasks();
-        // this instance will create the reduce tasks based on the map results
-        createReduceTasks();
-        solveReduceTasks();
-        sortAndWriteOutput();
+        if (metricsFileName != null) {
+            metrics = new Metrics();
+        }
+        if (incrementalFolder != null) {
+            incrementalState = new IncrementalState(incrementalFolder,
+                                                    utf8Separators);
+        }
+        if (cache != null) {
+            cache.setSeparators(utf8Separators.getSpec());
+            cache.setAutoFragments(autoFragmentSize);
+        }
+        if (!sharedBackend) {
+            backend = ExecutionBackend.forName(backendName, p);
+        }
+        try {
+            solveSteps();
+        } finally {
+            if (!sharedBackend) {
+                backend.close();
+            }
+        }
+    }
+
+    private void solveSteps() {
+        phase("readInput", this::readInput);
+        phase("createMapTasks", this::createMapTasks);
+        if (streaming) {
+            // the map workers will also fill reduceResults
+            phase("solveMapTasks", this::solveMapTasks);
+        } else {
+            // the map workers will put the results into mapResults
+            phase("solveMapTasks", this::solveMapTasks);
+            // this instance will create the reduce tasks based on the map
+            // results
+            phase("createReduceTasks", this::createReduceTasks);
+            phase("solveReduceTasks", this::solveReduceTasks);
+        }
+        phase("sortAndWriteOutput", this::sortAndWriteOutput);
+        if (cache != null) {
+            phase("updateCache", this::updateCache);
+        }
+        if (incrementalState != null) {
+            phase("saveIncrementalState", this::saveIncrementalState);
+        }
+
+        if (metrics != null) {
+            metrics.writeJson(metricsFileName);
+        }
+    }
+
+    /**
+     * Runs a step of the algorithm, measuring it if the metrics are on
+     * @param name the name of the step, as it appears in the metrics
+     * @param step the step to be run
+     */
+    private void phase(String name, Runnable step) {
+        if (metrics == null) {
+            step.run();
+        } else {
+            metrics.time(name, step);
+        }
     }
 
     private void readInput() {
@@ -89,16 +467,77 @@ class Solver {
     private void createMapTasks() {
         mapTasks = new ArrayList<>();
         docDims = new long[noDocs];
+        docFragments = new int[noDocs];
+        storedResults = new MapResult[noDocs];
+        docCached = new boolean[noDocs];
+        docStates = new IncrementalState.DocumentState[noDocs];
+        if (memoryMapped) {
+            docBuffers = new MappedByteBuffer[noDocs];
+        }
+        if (autoFragmentSize) {
+            long totalBytes = 0;
+            for (int i = 0; i < noDocs; i++) {
+                totalBytes += new File(docNames[i]).length();
+            }
+            D = FragmentPlanner.chooseSize(totalBytes, p);
+        }
 
         for (int i = 0; i < noDocs; i++) {
             try (RandomAccessFile raf
                          = new RandomAccessFile(docNames[i], "r")) {
                 docDims[i] = raf.length();
+                if (GzipIndex.isCompressed(docNames[i])) {
+                    if (gzipIndexes == null) {
+                        gzipIndexes = new GzipIndex[noDocs];
+                    }
+                    gzipIndexes[i] = GzipIndex.open(docNames[i]);
+                    docDims[i] = gzipIndexes[i].getLength();
+                }
+                if (cache != null) {
+                    storedResults[i] = cache.lookup(docNames[i], D);
+                    if (storedResults[i] != null) {
+                        // the document doesn't need to be mapped again
+                        docCached[i] = true;
+                        docFragments[i] = storedResults[i].getFragments();
+                        continue;
+                    }
+                }
+                // the offset where the mapping of the document starts
+                long start = 0;
+                if (gzipIndexes != null && gzipIndexes[i] != null) {
+                    // the members are cut into tasks, from the beginning
+                    // (the compressed documents are not processed
+                    // incrementally)
+                    docFragments[i] += FragmentPlanner.addMemberTasks(
+                        mapTasks, gzipIndexes[i], docNames[i], i, D);
+                    continue;
+                }
+                if (incrementalState != null) {
+                    docStates[i] = incrementalState.load(docNames[i],
+                                                         docDims[i]);
+                    if (docStates[i] != null) {
+                        storedResults[i] = docStates[i].getResult();
+                        docFragments[i] = storedResults[i].getFragments();
+                        start = docStates[i].getMapStart();
+                    }
+                }
+                if (memoryMapped && docDims[i] <= Integer.MAX_VALUE) {
+                    // the mapping remains valid after the channel is closed
+                    docBuffers[i] = raf.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, docDims[i]);
+                }
 
-                for (long j = 0; j < docDims[i]; j += D) {
+                if (autoFragmentSize || utf8Separators.hasNonAscii()) {
+                    docFragments[i] += FragmentPlanner.addAlignedTasks(
+                        mapTasks, raf, docNames[i], i, start, D,
+                        utf8Separators);
+                    continue;
+                }
+                for (long j = start; j < docDims[i]; j += D) {
                     var delta = docDims[i] - j;
                     mapTasks.add(new MapTask(docNames[i], j,
                         (delta >= D) ? D : delta, i));
+                    docFragments[i]++;
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -107,103 +546,436 @@ class Solver {
     }
 
     private void solveMapTasks() {
-        mapResults = new MapResult[mapTasks.size()];
-        Thread[] mapWorkers = new MapWorker[p];
-
-        for (int i = 0; i < p; i++) {
-            mapWorkers[i] = new MapWorker(i, p, mapTasks, separatorsMask,
-                                          docDims, D, mapResults);
+        // where the workers deliver the results, null for mapResults
+        MapResultSink sink = null;
+        if (streaming) {
+            reduceResults = new ReduceResult[noDocs];
+            var reducer = new StreamingReducer(docNames, docFragments,
+                                               reduceResults, wordsLimit);
+            reducer.setRankFunction(rankFunction);
+            for (int i = 0; i < noDocs; i++) {
+                if (storedResults[i] != null) {
+                    reducer.accept(i, storedResults[i]);
+                }
+            }
+            sink = reducer;
+        } else {
+            mapResults = new MapResult[mapTasks.size()];
+            if (memoryBudget > 0) {
+                spillBuffer = new SpillBuffer(mapResults, memoryBudget,
+                    wordsLimit, new File(System.getProperty("java.io.tmpdir")));
+                sink = spillBuffer;
+            }
+        }
+        if (processes > 0) {
+            solveMapTasksRemotely(sink);
+            return;
+        }
+        int units = backend.units(p, mapTasks.size());
+        MapWorker[] mapWorkers = new MapWorker[units];
+        // the chunks are small enough for balancing the load at the end, but
+        // big enough for the cursor not to be contended on every task
+        int chunkSize = Math.max(1, mapTasks.size() / (units * 16));
+        AtomicInteger taskCursor = new AtomicInteger(0);
+        ExecutorService ioPool = null;
+        if (prefetchDepth > 0 && !memoryMapped) {
+            ioPool = Executors.newFixedThreadPool(p, runnable -> {
+                Thread thread = new Thread(runnable, "prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
 
-        for (int i = 0; i < p; i++) {
-            mapWorkers[i].start();
+        for (int i = 0; i < units; i++) {
+            mapWorkers[i] = new MapWorker(i, units, mapTasks, separatorsMask,
+                                          docDims, D, mapResults, docBuffers);
+            if (dynamicScheduling) {
+                mapWorkers[i].setTaskCursor(taskCursor, chunkSize);
+            }
+            mapWorkers[i].setCollectLongestWords(collectLongestWords);
+            mapWorkers[i].setWordsLimit(wordsLimit);
+            mapWorkers[i].setResultSink(sink);
+            mapWorkers[i].setCombining(combining);
+            mapWorkers[i].setClassifier(classifier);
+            mapWorkers[i].setSeparators(utf8Separators);
+            mapWorkers[i].setBufferPool(bufferPool);
+            mapWorkers[i].setGzipIndexes(gzipIndexes);
+            if (ioPool != null) {
+                mapWorkers[i].setPrefetch(ioPool, prefetchDepth);
+            }
+            if (metrics != null) {
+                mapWorkers[i].setStats(metrics.newWorkerStats("map", i));
+            }
         }
 
-        for (int i = 0; i < p; i++) {
-            try {
-                mapWorkers[i].join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                Thread.currentThread().interrupt();
+        try {
+            backend.runAll(Arrays.asList(mapWorkers));
+        } finally {
+            if (ioPool != null) {
+                ioPool.shutdown();
             }
         }
     }
 
+    /**
+     * Maps the tasks in worker processes, delivering the results the same
+     * way as the map threads do
+     * @param sink where the results are delivered, null for mapResults
+     */
+    private void solveMapTasksRemotely(MapResultSink sink) {
+        var coordinator = new Coordinator(processes, D, separatorsMask,
+                                          docDims);
+        coordinator.setCollectLongestWords(collectLongestWords);
+        coordinator.setWordsLimit(wordsLimit);
+        coordinator.setVectorized(classifier != null);
+        coordinator.setUnicodeSeparators(utf8Separators.getSpec());
+        coordinator.setCrashAfter(processCrashAfter);
+
+        if (sink == null) {
+            sink = (taskIndex, task, result) -> mapResults[taskIndex] = result;
+        }
+        try {
+            coordinator.mapAll(mapTasks, sink);
+        } catch (IOException e) {
+            // the output can't be written without all the map results
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private void createReduceTasks() {
         reduceTasks = new ReduceTask[noDocs];
+        for (int docId = 0; docId < noDocs; docId++) {
+            reduceTasks[docId] = new ReduceTask(docNames[docId]);
+            if (storedResults[docId] != null) {
+                reduceTasks[docId].getAppsDictionaries()
+                    .add(storedResults[docId].getDictionary());
+                reduceTasks[docId].getLongestWordsParts()
+                    .add(storedResults[docId].getLongestWords());
+            }
+        }
 
-        // the document whose task is being building
-        int docId = 0;
-        reduceTasks[docId] = new ReduceTask(docNames[docId]);
+        if (spillBuffer != null) {
+            MapResult[] spilled;
+            try {
+                spilled = spillBuffer.mergeRuns(docNames);
+            } catch (IOException e) {
+                // the output can't be written without the spilled results
+                throw new UncheckedIOException(e);
+            }
+            for (int docId = 0; docId < noDocs; docId++) {
+                if (spilled[docId] != null) {
+                    reduceTasks[docId].getAppsDictionaries()
+                        .add(spilled[docId].getDictionary());
+                    reduceTasks[docId].getLongestWordsParts()
+                        .add(spilled[docId].getLongestWords());
+                }
+            }
+        }
 
         for (int i = 0; i < mapResults.length; i++) {
             var result = mapResults[i];
-            if (!result.getDocName().equals(docNames[docId])) {
-                // pass to the next document read, the previous was finished
-                // i.e. there are no more fragments from it
-                docId++;
-                reduceTasks[docId] = new ReduceTask(docNames[docId]);
+            if (result == null) {
+                // this fragment was folded by the combiner into a previous one
+                continue;
             }
+            int docId = mapTasks.get(i).getDocId();
             reduceTasks[docId].getAppsDictionaries()
                               .add(result.getDictionary());
-            reduceTasks[docId].getLongestWordsLists()
+            reduceTasks[docId].getLongestWordsParts()
                               .add(result.getLongestWords());
         }
     }
 
     private void solveReduceTasks() {
-        Thread[] reduceWorkers = new ReduceWorker[p];
+        int units = backend.units(p, noDocs);
+        ReduceWorker[] reduceWorkers = new ReduceWorker[units];
         reduceResults = new ReduceResult[noDocs];
+        int[][] assignedDocs = balancedReduce ? assignReduceDocs(units) : null;
+        ForkJoinPool mergePool = balancedReduce ? new ForkJoinPool(p) : null;
 
-        for (int i = 0; i < p; i++) {
-            reduceWorkers[i] = new ReduceWorker(i, p, reduceTasks,
+        for (int i = 0; i < units; i++) {
+            reduceWorkers[i] = new ReduceWorker(i, units, reduceTasks,
                                                 reduceResults);
+            reduceWorkers[i].setWordsLimit(wordsLimit);
+            reduceWorkers[i].setRankFunction(rankFunction);
+            if (balancedReduce) {
+                reduceWorkers[i].setAssignedDocs(assignedDocs[i]);
+                reduceWorkers[i].setMergePool(mergePool);
+            }
+            if (metrics != null) {
+                reduceWorkers[i].setStats(metrics.newWorkerStats("reduce", i));
+            }
         }
 
-        for (int i = 0; i < p; i++) {
-            reduceWorkers[i].start();
+        backend.runAll(Arrays.asList(reduceWorkers));
+
+        if (mergePool != null) {
+            mergePool.shutdown();
         }
+    }
 
-        for (int i = 0; i < p; i++) {
-            try {
-                reduceWorkers[i].join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                Thread.currentThread().interrupt();
+    /**
+     * Shares the documents to the reduce workers by the longest processing
+     * time first rule: the documents are taken in decreasing order of their
+     * size and each one goes to the worker with the least work so far
+     * @param workers the number of reduce workers
+     * @return the ids of the documents for each reduce worker
+     */
+    private int[][] assignReduceDocs(int workers) {
+        Integer[] order = new Integer[noDocs];
+        for (int i = 0; i < noDocs; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (d1, d2) -> Long.compare(docDims[d2], docDims[d1]));
+
+        // {load, worker id}, the least loaded worker first
+        PriorityQueue<long[]> loads = new PriorityQueue<>((w1, w2) ->
+            w1[0] != w2[0] ? Long.compare(w1[0], w2[0])
+                           : Long.compare(w1[1], w2[1]));
+        for (int i = 0; i < workers; i++) {
+            loads.add(new long[] {0, i});
+        }
+
+        List<List<Integer>> docsPerWorker = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            docsPerWorker.add(new ArrayList<>());
+        }
+        for (int docId : order) {
+            long[] worker = loads.poll();
+            docsPerWorker.get((int) worker[1]).add(docId);
+            // the documents of the same size still have to be spread
+            worker[0] += Math.max(docDims[docId], 1);
+            loads.add(worker);
+        }
+
+        int[][] assignedDocs = new int[workers][];
+        for (int i = 0; i < workers; i++) {
+            assignedDocs[i] = docsPerWorker.get(i).stream()
+                                           .mapToInt(Integer::intValue)
+                                           .toArray();
+        }
+        return assignedDocs;
+    }
+
+    /** Saves into the cache the results of the documents mapped now */
+    private void updateCache() {
+        for (ReduceResult result : reduceResults) {
+            if (!docCached[result.getId()]) {
+                cache.store(result.getName(), D, result.getDictionary(),
+                            result.getLongestWords());
             }
         }
     }
 
-    private void sortAndWriteOutput() {
-        Arrays.sort(reduceResults, (d1, d2) -> {
-            Double r1 = d1.getRank();
-            Double r2 = d2.getRank();
-            if (r1.equals(r2)) {
-                return d1.getId() - d2.getId();
+    /** Remembers how much of each document was processed by this run */
+    private void saveIncrementalState() {
+        for (ReduceResult result : reduceResults) {
+            int docId = result.getId();
+            if (!docCached[docId]
+                    && !GzipIndex.isCompressed(result.getName())) {
+                incrementalState.save(result.getName(), docDims[docId],
+                                      docStates[docId],
+                                      result.getDictionary(),
+                                      result.getLongestWords());
             }
-            return r2.compareTo(r1);
-        });
+        }
+    }
+
+    private void sortAndWriteOutput() {
+        int[] order = topDocuments > 0
+                      ? RankOrder.top(reduceResults, topDocuments)
+                      : RankOrder.sort(reduceResults);
 
         int docNameOffset = DOCUMENTS_FOLDER.length();
+        String lineSeparator = System.lineSeparator();
 
-        try (FileWriter fileWriter = new FileWriter(outputFileName)) {
-            BufferedWriter writer = new BufferedWriter(fileWriter);
-            for (int i = 0; i < noDocs; i++) {
-                String name = reduceResults[i].getName();
-                Double rank = reduceResults[i].getRank();
-                Long maxWordLen = reduceResults[i].getMaxDim();
-                Long maxWordsApps = reduceResults[i].getMaxDimApps();
-
-                writer.write(name.substring(docNameOffset));
-                writer.write(COMMA);
-                writer.write(String.format("%.2f", rank));
-                writer.write(COMMA);
-                writer.write(maxWordLen.toString());
-                writer.write(COMMA);
-                writer.write(maxWordsApps.toString());
-                writer.newLine();
-            }
-            writer.close();
+        try (OutputBuffer writer = new OutputBuffer(outputFileName)) {
+            for (int docId : order) {
+                ReduceResult result = reduceResults[docId];
+
+                writer.put(result.getName().substring(docNameOffset));
+                writer.put(COMMA);
+                writer.putFixed(result.getRank(), 2);
+                writer.put(COMMA);
+                writer.put(result.getMaxDim());
+                writer.put(COMMA);
+                writer.put(result.getMaxDimApps());
+                writer.put(lineSeparator);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+/**
+ * Runs the jobs of Tema2 in one JVM which stays alive between them, so a
+ * job doesn't pay for starting the JVM, loading the classes and compiling
+ * the hot code; the worker threads and the data buffers of the map workers
+ * are shared by all the jobs.
+ *
+ * A client connects on the loopback interface and sends one line with the
+ * arguments of a run (<workers> <in_file> <out_file> [options], separated
+ * by spaces, the relative paths being resolved from the folder of the
+ * server); the answer is one line, "OK <millis>" or "ERROR <message>". The
+ * line "shutdown" stops the server after the jobs in progress.
+ */
+class JobServer implements AutoCloseable {
+    /** how many jobs run at the same time, if not given */
+    private static final int DEFAULT_MAX_JOBS = 4;
+    /** how many free data buffers are kept for each thread */
+    private static final int BUFFERS_PER_THREAD = 4;
+    static final String SHUTDOWN = "shutdown";
+
+    private final ServerSocket server;
+    /** runs the steps of all the jobs, taking turns between them */
+    private final ExecutionBackend backend;
+    private final BufferPool bufferPool;
+    /** the threads of the jobs, each one waiting for the steps of its job */
+    private final ExecutorService jobs;
+
+    /**
+     * @param port the port on the loopback interface, 0 for any free one
+     * @param threads the number of worker threads shared by the jobs
+     * @param maxJobs how many jobs run at the same time (the others wait)
+     */
+    JobServer(int port, int threads, int maxJobs) throws IOException {
+        server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        backend = new FairShareBackend(threads);
+        bufferPool = new BufferPool(threads * BUFFERS_PER_THREAD);
+        jobs = Executors.newFixedThreadPool(maxJobs);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** Accepts the jobs until a client asks for the shutdown */
+    void serve() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+            jobs.execute(() -> handle(socket));
+        }
+    }
+
+    /** Waits for the jobs in progress and releases the threads */
+    @Override
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        jobs.shutdown();
+        try {
+            jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backend.close();
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            var in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+            var out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            String line = in.readLine();
+            if (line == null) {
+                return;
+            }
+            if (line.trim().equals(SHUTDOWN)) {
+                out.println("OK");
+                server.close();
+                return;
+            }
+            out.println(runJob(line.trim().split("\\s+")));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param args the arguments of the run
+     * @return the answer for the client
+     */
+    private String runJob(String[] args) {
+        if (args.length < 3) {
+            return "ERROR Expected <workers> <in_file> <out_file> [options]";
+        }
+        long startNanos = System.nanoTime();
+        try {
+            Solver solver = Tema2.createSolver(args);
+            solver.setBackend(backend);
+            solver.setBufferPool(bufferPool);
+            solver.solve();
+        } catch (RuntimeException e) {
+            return "ERROR " + e;
+        }
+        return "OK " + (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Starts a server and serves the jobs until the shutdown
+     * @param args --server, the port, the number of threads and, optionally,
+     * how many jobs run at the same time
+     */
+    static void runServer(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: Tema2 --server <port> <threads>"
+                + " [<max_jobs>]");
+            return;
+        }
+        int port = Integer.parseInt(args[1]);
+        int threads = Integer.parseInt(args[2]);
+        int maxJobs = args.length > 3 ? Integer.parseInt(args[3])
+                                      : DEFAULT_MAX_JOBS;
+
+        try (var jobServer = new JobServer(port, threads, maxJobs)) {
+            System.err.println("Serving jobs on port " + jobServer.getPort());
+            jobServer.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a job (or the shutdown) to a running server and prints its answer
+     * @param args --submit, the port of the server, then the arguments of the
+     * run (or "shutdown")
+     */
+    static void submit(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: Tema2 --submit <port> <workers>"
+                + " <in_file> <out_file> [options]");
+            return;
+        }
+        int port = Integer.parseInt(args[1]);
+        String job = String.join(" ", Arrays.copyOfRange(args, 2,
+                                                         args.length));
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port)) {
+            var out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            var in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(job);
+            String answer = in.readLine();
+            if (answer == null || !answer.startsWith("OK")) {
+                System.err.println(answer == null ? "No answer" : answer);
+            } else {
+                System.out.println(answer);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -211,15 +983,165 @@ class Solver {
 }
 
 public class Tema2 {
+    /** the maximum size of the cache of results, if not given */
+    private static final long DEFAULT_CACHE_SIZE = 64L << 20;
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            JobServer.runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--submit")) {
+            JobServer.submit(args);
+            return;
+        }
         if (args.length < 3) {
-            System.err.println("Usage: Tema2 <workers> <in_file> <out_file>");
+            System.err.println("Usage: Tema2 <workers> <in_file> <out_file>"
+                + " [--mmap] [--dynamic] [--no-words]"
+                + " [--streaming] [--combine] [--balanced-reduce]"
+                + " [--metrics <json_file>]"
+                + " [--backend platform|forkjoin|virtual]"
+                + " [--cache <folder>] [--cache-size <bytes>]"
+                + " [--incremental <folder>] [--simd]"
+                + " [--top-k <words>|exact]"
+                + " [--processes <n>] [--process-crash-after <tasks>]"
+                + " [--memory-budget <bytes>] [--fragment auto|input]"
+                + " [--prefetch <depth>]"
+                + " [--separators space,punct,symbol,U+XXXX[-U+YYYY]]"
+                + " [--rank fibonacci|log|length|saturating[:<length>]]"
+                + " [--top-docs <n>]");
+            System.err.println("       Tema2 --server <port> <threads>"
+                + " [<max_jobs>]");
+            System.err.println("       Tema2 --submit <port> <workers>"
+                + " <in_file> <out_file> [options]");
+            return;
+        }
+
+        Solver student;
+        try {
+            student = createSolver(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             return;
         }
+        student.solve();
+    }
+
+    /**
+     * @param args the arguments of a run: the number of workers, the input
+     * and output files, then the options
+     * @return the solver configured for the run
+     * @throws IllegalArgumentException if an option is unknown or incomplete
+     */
+    static Solver createSolver(String[] args) {
         int p = Integer.parseInt(args[0]);
         String inputFileName = args[1];
         String outputFileName = args[2];
         var student = new Solver(p, inputFileName, outputFileName);
-        student.solve();
+        String cacheFolder = null;
+        long cacheSize = DEFAULT_CACHE_SIZE;
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mmap":
+                    student.setMemoryMapped(true);
+                    break;
+                case "--dynamic":
+                    student.setDynamicScheduling(true);
+                    break;
+                case "--no-words":
+                    student.setCollectLongestWords(false);
+                    break;
+                case "--streaming":
+                    student.setStreaming(true);
+                    break;
+                case "--combine":
+                    student.setCombining(true);
+                    break;
+                case "--balanced-reduce":
+                    student.setBalancedReduce(true);
+                    break;
+                case "--metrics":
+                    student.setMetricsFileName(value(args, ++i, "file"));
+                    break;
+                case "--backend":
+                    student.setBackendName(value(args, ++i, "name"));
+                    break;
+                case "--cache":
+                    cacheFolder = value(args, ++i, "folder");
+                    break;
+                case "--cache-size":
+                    cacheSize = Long.parseLong(value(args, ++i, "size"));
+                    break;
+                case "--simd":
+                    student.setVectorized(true);
+                    break;
+                case "--top-k":
+                    String words = value(args, ++i, "number");
+                    student.setWordsLimit(words.equals("exact")
+                                          ? LongestWords.EXACT
+                                          : Integer.parseInt(words));
+                    break;
+                case "--processes":
+                    student.setProcesses(
+                        Integer.parseInt(value(args, ++i, "number")));
+                    break;
+                case "--process-crash-after":
+                    student.setProcessCrashAfter(
+                        Integer.parseInt(value(args, ++i, "number")));
+                    break;
+                case "--memory-budget":
+                    student.setMemoryBudget(
+                        Long.parseLong(value(args, ++i, "size")));
+                    break;
+                case "--fragment":
+                    String mode = value(args, ++i, "mode");
+                    if (!mode.equals("auto") && !mode.equals("input")) {
+                        throw new IllegalArgumentException(
+                            "Unknown fragment mode: " + mode);
+                    }
+                    student.setAutoFragmentSize(mode.equals("auto"));
+                    break;
+                case "--prefetch":
+                    student.setPrefetchDepth(
+                        Integer.parseInt(value(args, ++i, "depth")));
+                    break;
+                case "--separators":
+                    student.setUnicodeSeparators(value(args, ++i, "list"));
+                    break;
+                case "--rank":
+                    student.setRankFunction(value(args, ++i, "function"));
+                    break;
+                case "--top-docs":
+                    student.setTopDocuments(
+                        Integer.parseInt(value(args, ++i, "number")));
+                    break;
+                case "--incremental":
+                    student.setIncrementalState(value(args, ++i, "folder"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: "
+                                                       + args[i]);
+            }
+        }
+        if (cacheFolder != null) {
+            student.setCache(cacheFolder, cacheSize);
+        }
+        return student;
+    }
+
+    /**
+     * @param args the arguments of a run
+     * @param i the index of the value of an option
+     * @param what the kind of the value, for the error message
+     * @return the value of the option
+     * @throws IllegalArgumentException if the option is the last argument
+     */
+    private static String value(String[] args, int i, String what) {
+        if (i == args.length) {
+            throw new IllegalArgumentException("Missing " + what + " for "
+                                               + args[i - 1]);
+        }
+        return args[i];
     }
 }
@@ -0,0 +1,309 @@
+package dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import map.MapResult;
+import map.MapResultSink;
+import map.MapTask;
+import util.LongestWords;
+
+
+/**
+ * Maps the tasks in separate JVMs launched on this machine: each worker
+ * process is served by a thread of the coordinator over a loopback socket,
+ * taking the tasks from a shared queue. If a process fails, its unfinished
+ * tasks are put back into the queue and the process is replaced.
+ */
+public class Coordinator {
+    /** how many tasks a process gets before its first result is awaited */
+    private static final int WINDOW = 8;
+    /** how many times the process of a slot is replaced after failing */
+    private static final int MAX_RESTARTS = 3;
+    /** how long a launched process has for connecting, in milliseconds */
+    private static final int ACCEPT_TIMEOUT = 30_000;
+    /** how long an idle slot waits for the tasks of a failed process */
+    private static final long IDLE_WAIT = 10;
+    /**
+     * the prefixes of the JVM options passed on to the worker processes
+     * (memory, garbage collector, modules, assertions and properties); the
+     * others, such as the agents of a debugger or a profiler, would clash
+     * with the ones of this JVM
+     */
+    private static final String[] FORWARDED_OPTIONS = {
+        "-Xmx", "-Xms", "-Xss", "-Xmn", "-XX:+Use", "-XX:-Use",
+        "-XX:MaxRAMPercentage=", "-XX:InitialRAMPercentage=",
+        "-XX:MaxDirectMemorySize=", "--add-modules=", "--add-opens=",
+        "--add-exports=", "--add-reads=", "--limit-modules=",
+        "--enable-native-access=", "--enable-preview", "-ea", "-da",
+        "-esa", "-dsa", "-enableassertions", "-disableassertions", "-D"
+    };
+    /** the properties which start the JMX server of this JVM */
+    private static final String MANAGEMENT_PROPERTIES = "-Dcom.sun.management.";
+
+    private final int noProcesses;
+    private final int D;
+    private final boolean[] separatorsMask;
+    private final long[] docDims;
+    private boolean collectLongestWords = true;
+    private int wordsLimit = LongestWords.DEFAULT_LIMIT;
+    private boolean vectorized;
+    /** the non-ASCII separators, as given to Utf8Separators.parse */
+    private String unicodeSeparators = "";
+    /** after how many tasks the first processes crash, -1 for never */
+    private int crashAfter = -1;
+
+    /** the tasks of the run and the indexes of the ones not sent yet */
+    private List<MapTask> tasks;
+    private LinkedBlockingQueue<Integer> pending;
+    /** how many tasks don't have a result yet */
+    private AtomicInteger remaining;
+    private MapResultSink sink;
+    private ServerSocket server;
+
+    /**
+     * @param noProcesses how many worker processes are launched
+     * @param D the size of a fragment
+     * @param separatorsMask isSeparator[c] for each byte c
+     * @param docDims the size of each document
+     */
+    public Coordinator(int noProcesses, int D, boolean[] separatorsMask,
+                       long[] docDims) {
+        this.noProcesses = noProcesses;
+        this.D = D;
+        this.separatorsMask = separatorsMask;
+        this.docDims = docDims;
+    }
+
+    public void setCollectLongestWords(boolean collectLongestWords) {
+        this.collectLongestWords = collectLongestWords;
+    }
+
+    public void setWordsLimit(int wordsLimit) {
+        this.wordsLimit = wordsLimit;
+    }
+
+    /** The worker processes find the separators with the Vector API */
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    /**
+     * @param unicodeSeparators the non-ASCII separators, as given to
+     * Utf8Separators.parse ("" for none)
+     */
+    public void setUnicodeSeparators(String unicodeSeparators) {
+        this.unicodeSeparators = unicodeSeparators;
+    }
+
+    /**
+     * Makes the first process of each slot crash after mapping a number of
+     * tasks, for checking that the run recovers
+     * @param crashAfter the number of tasks, -1 for no crash
+     */
+    public void setCrashAfter(int crashAfter) {
+        this.crashAfter = crashAfter;
+    }
+
+    /**
+     * Maps all the tasks in the worker processes; the results are handed to
+     * the sink by the threads serving the processes, each exactly once
+     * @param tasks the tasks to be mapped
+     * @param sink receives the result of each task
+     * @throws IOException if all the processes failed before the end
+     */
+    public void mapAll(List<MapTask> tasks, MapResultSink sink)
+            throws IOException {
+        this.tasks = tasks;
+        this.sink = sink;
+        pending = new LinkedBlockingQueue<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            pending.add(i);
+        }
+        remaining = new AtomicInteger(tasks.size());
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        try (ServerSocket serverSocket
+                     = new ServerSocket(0, noProcesses,
+                                        InetAddress.getLoopbackAddress())) {
+            server = serverSocket;
+            server.setSoTimeout(ACCEPT_TIMEOUT);
+
+            Thread[] slots = new Thread[noProcesses];
+            for (int i = 0; i < noProcesses; i++) {
+                final int slot = i;
+                slots[i] = new Thread(() -> serveSlot(slot));
+                slots[i].start();
+            }
+            for (Thread slot : slots) {
+                try {
+                    slot.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while mapping", e);
+                }
+            }
+        }
+
+        if (remaining.get() > 0) {
+            throw new IOException("All the worker processes failed, "
+                                  + remaining.get() + " tasks not mapped");
+        }
+    }
+
+    /**
+     * Keeps a worker process running in a slot until there are no more
+     * tasks, replacing it when it fails
+     * @param slot the index of the slot
+     */
+    private void serveSlot(int slot) {
+        for (int attempt = 0; attempt <= MAX_RESTARTS; attempt++) {
+            Process process = null;
+            ArrayDeque<Integer> inFlight = new ArrayDeque<>();
+            try {
+                Socket socket;
+                // a slot launches and accepts at once, so the connection
+                // accepted is the one of its own process
+                synchronized (server) {
+                    process = launch(attempt == 0 ? crashAfter : -1);
+                    socket = server.accept();
+                }
+                try (socket) {
+                    serveProcess(socket, inFlight);
+                }
+                process.waitFor(ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS);
+                return;
+            } catch (IOException e) {
+                System.err.println("Worker process " + slot + " failed ("
+                                   + e + "), " + inFlight.size()
+                                   + " tasks resent");
+                pending.addAll(inFlight);
+            } catch (InterruptedException e) {
+                pending.addAll(inFlight);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                if (process != null) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends tasks to a connected process and collects its results, until
+     * all the tasks of the run have their results
+     * @param socket the connection with the process
+     * @param inFlight filled with the tasks sent and not answered yet
+     */
+    private void serveProcess(Socket socket, ArrayDeque<Integer> inFlight)
+            throws IOException, InterruptedException {
+        socket.setTcpNoDelay(true);
+        var in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        var out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+        Protocol.writeConfig(out, D, separatorsMask, unicodeSeparators,
+                             docDims, collectLongestWords, wordsLimit,
+                             vectorized);
+
+        while (remaining.get() > 0) {
+            while (inFlight.size() < WINDOW) {
+                Integer next = pending.poll();
+                if (next == null) {
+                    break;
+                }
+                // kept before sending, so it is resent if the write fails
+                inFlight.add(next);
+                Protocol.writeTask(out, next, tasks.get(next));
+            }
+            out.flush();
+
+            if (inFlight.isEmpty()) {
+                // the tasks left are in other processes, but they come back
+                // into the queue if those processes fail
+                Thread.sleep(IDLE_WAIT);
+                continue;
+            }
+
+            int taskIndex = in.readInt();
+            if (taskIndex != inFlight.peek()) {
+                throw new IOException("Unexpected result for task "
+                                      + taskIndex);
+            }
+            MapTask task = tasks.get(taskIndex);
+            MapResult result = Protocol.readResult(in, task.getDocName());
+            inFlight.poll();
+            sink.accept(taskIndex, task, result);
+            remaining.decrementAndGet();
+        }
+
+        out.writeInt(Protocol.SHUTDOWN);
+        out.flush();
+    }
+
+    /**
+     * Starts a worker process with the class path and the forwarded JVM
+     * options of this one
+     * @param crashAfter after how many tasks the process crashes, -1 never
+     * @return the process started
+     */
+    private Process launch(int crashAfter) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java")
+                        .toString());
+        List<String> options
+            = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        command.addAll(forwardedOptions(options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RemoteWorker.class.getName());
+        command.add(Integer.toString(server.getLocalPort()));
+        if (crashAfter >= 0) {
+            command.add(Integer.toString(crashAfter));
+        }
+
+        return new ProcessBuilder(command)
+            .redirectOutput(Redirect.DISCARD)
+            .redirectError(Redirect.INHERIT)
+            .start();
+    }
+
+    /**
+     * @param options the JVM options of this process (as given by
+     * getInputArguments(), with the value of a module option after '=')
+     * @return the ones which are also given to a worker process
+     */
+    static List<String> forwardedOptions(List<String> options) {
+        List<String> forwarded = new ArrayList<>();
+        for (String option : options) {
+            if (option.startsWith(MANAGEMENT_PROPERTIES)) {
+                continue;
+            }
+            for (String prefix : FORWARDED_OPTIONS) {
+                if (option.startsWith(prefix)) {
+                    forwarded.add(option);
+                    break;
+                }
+            }
+        }
+        return forwarded;
+    }
+}
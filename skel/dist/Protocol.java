@@ -0,0 +1,119 @@
+package dist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import map.MapResult;
+import map.MapTask;
+import store.WireFormat;
+
+
+/**
+ * The messages exchanged by the coordinator and a worker process over their
+ * socket: first the configuration of the run, then TASK messages answered in
+ * order by results, and finally a SHUTDOWN message
+ */
+final class Protocol {
+    /** the coordinator sends a task to be mapped */
+    static final int TASK = 1;
+    /** there are no more tasks, the worker process exits */
+    static final int SHUTDOWN = 2;
+
+    private Protocol() {
+    }
+
+    /**
+     * Sends what a worker needs for mapping any task of the run
+     * @param out the stream to the worker
+     * @param D the size of a fragment
+     * @param separatorsMask isSeparator[c] for each byte c
+     * @param unicodeSeparators the non-ASCII separators ("" for none)
+     * @param docDims the size of each document
+     * @param collectLongestWords whether the longest words are kept
+     * @param wordsLimit how many distinct longest words are kept
+     * @param vectorized whether the separators are found with the Vector API
+     */
+    static void writeConfig(DataOutput out, int D, boolean[] separatorsMask,
+                            String unicodeSeparators, long[] docDims,
+                            boolean collectLongestWords, int wordsLimit,
+                            boolean vectorized) throws IOException {
+        out.writeInt(D);
+        out.writeInt(separatorsMask.length);
+        for (boolean isSeparator : separatorsMask) {
+            out.writeBoolean(isSeparator);
+        }
+        out.writeUTF(unicodeSeparators);
+        out.writeInt(docDims.length);
+        for (long dim : docDims) {
+            out.writeLong(dim);
+        }
+        out.writeBoolean(collectLongestWords);
+        out.writeInt(wordsLimit);
+        out.writeBoolean(vectorized);
+    }
+
+    /**
+     * Sends a task to a worker
+     * @param out the stream to the worker
+     * @param taskIndex the index of the task, sent back with the result
+     * @param task the task to be mapped
+     */
+    static void writeTask(DataOutput out, int taskIndex, MapTask task)
+            throws IOException {
+        out.writeInt(TASK);
+        out.writeInt(taskIndex);
+        out.writeUTF(task.getDocName());
+        out.writeLong(task.getStartOffset());
+        out.writeLong(task.getDim());
+        out.writeInt(task.getDocId());
+        out.writeBoolean(task.isAligned());
+    }
+
+    /**
+     * Reads the body of a TASK message (after its type and index)
+     * @param in the stream from the coordinator
+     * @return the task to be mapped
+     */
+    static MapTask readTask(DataInput in) throws IOException {
+        String docName = in.readUTF();
+        long startOffset = in.readLong();
+        long dim = in.readLong();
+        int docId = in.readInt();
+        boolean aligned = in.readBoolean();
+        return new MapTask(docName, startOffset, dim, docId, aligned);
+    }
+
+    /**
+     * Sends the result of a task back to the coordinator, in the WireFormat
+     * encoding preceded by its size
+     * @param out the stream to the coordinator
+     * @param taskIndex the index of the task
+     * @param result the result of the task
+     */
+    static void writeResult(DataOutput out, int taskIndex, MapResult result)
+            throws IOException {
+        ByteBuffer encoded = WireFormat.encode(result);
+        out.writeInt(taskIndex);
+        out.writeInt(encoded.remaining());
+        out.write(encoded.array(), 0, encoded.remaining());
+    }
+
+    /**
+     * Reads the result of a task (after its index)
+     * @param in the stream from the worker
+     * @param docName the document of the task
+     * @return the result, covering one fragment
+     */
+    static MapResult readResult(DataInput in, String docName)
+            throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid size of an encoded result");
+        }
+        byte[] encoded = new byte[size];
+        in.readFully(encoded);
+        return WireFormat.read(ByteBuffer.wrap(encoded), docName);
+    }
+}
@@ -0,0 +1,95 @@
+package dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+import map.MapResult;
+import map.MapTask;
+import map.MapWorker;
+import map.SeparatorClassifier;
+import util.Utf8Separators;
+
+
+/**
+ * The main class of a worker process: it connects to the coordinator, maps
+ * the tasks it receives one by one and sends back their results, in the
+ * order of the tasks
+ */
+public class RemoteWorker {
+    /**
+     * @param args the port of the coordinator on the loopback interface and,
+     * optionally, after how many tasks the process crashes (for testing the
+     * recovery of the coordinator)
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int crashAfter = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port)) {
+            socket.setTcpNoDelay(true);
+            var in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+            MapWorker worker = readConfig(in);
+            int done = 0;
+            while (in.readInt() == Protocol.TASK) {
+                int taskIndex = in.readInt();
+                MapTask task = Protocol.readTask(in);
+                if (done++ == crashAfter) {
+                    Runtime.getRuntime().halt(1);
+                }
+
+                MapResult result = worker.map(task);
+                Protocol.writeResult(out, taskIndex, result);
+                // the results are sent together while more tasks are queued
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            worker.closeDocument();
+        }
+    }
+
+    /**
+     * Reads the configuration sent by the coordinator
+     * @param in the stream from the coordinator
+     * @return a worker which maps the tasks with this configuration
+     */
+    private static MapWorker readConfig(DataInputStream in)
+            throws IOException {
+        int D = in.readInt();
+        boolean[] separatorsMask = new boolean[in.readInt()];
+        for (int c = 0; c < separatorsMask.length; c++) {
+            separatorsMask[c] = in.readBoolean();
+        }
+        Utf8Separators separators = Utf8Separators.parse(separatorsMask,
+                                                         in.readUTF());
+        long[] docDims = new long[in.readInt()];
+        for (int i = 0; i < docDims.length; i++) {
+            docDims[i] = in.readLong();
+        }
+        boolean collectLongestWords = in.readBoolean();
+        int wordsLimit = in.readInt();
+        boolean vectorized = in.readBoolean();
+
+        var worker = new MapWorker(0, 1, List.of(), separatorsMask, docDims,
+                                   D, null);
+        worker.setCollectLongestWords(collectLongestWords);
+        worker.setWordsLimit(wordsLimit);
+        worker.setSeparators(separators);
+        if (vectorized) {
+            worker.setClassifier(
+                SeparatorClassifier.loadVectorized(separatorsMask));
+        }
+        return worker;
+    }
+}
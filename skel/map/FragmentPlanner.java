@@ -0,0 +1,172 @@
+package map;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import util.GzipIndex;
+import util.Utf8Separators;
+
+
+/**
+ * Chooses the size of the fragments from the corpus instead of taking D from
+ * the input file, and cuts the documents into aligned tasks: every edge is
+ * moved forward to the end of the word it falls into, so the map workers
+ * don't have to fix the edges of the fragments. An edge is moved by less
+ * than a fragment; one which falls into a longer word is left where it is,
+ * and the tasks on its sides are fixed by the map workers as usual, so a
+ * task is always smaller than two fragments.
+ */
+public final class FragmentPlanner {
+    /**
+     * the bytes which could be scanned in the time spent on setting up a
+     * task (the seek, the read call and the objects of the result)
+     */
+    private static final long TASK_OVERHEAD_BYTES = 16 << 10;
+    /** a task is at least this many times bigger than its overhead */
+    private static final long OVERHEAD_RATIO = 64;
+    /** the smallest fragment chosen, so the overhead stays under 2% */
+    public static final int MIN_SIZE
+        = (int) (TASK_OVERHEAD_BYTES * OVERHEAD_RATIO);
+    /** the biggest fragment chosen, bounding the buffer of each worker */
+    public static final int MAX_SIZE = 16 << 20;
+    /** how many tasks each worker gets, for balancing the load at the end */
+    private static final int TASKS_PER_WORKER = 8;
+    /** the bytes read at once while searching the end of a word */
+    private static final int SCAN_CHUNK = 4096;
+    /** the biggest task, so its offsets and size fit the int buffers */
+    private static final long MAX_TASK = Integer.MAX_VALUE - 8;
+
+    private FragmentPlanner() {
+    }
+
+    /**
+     * @param totalBytes the size of all the documents
+     * @param workers the number of map workers
+     * @return the size of the fragments: enough tasks for every worker to
+     * get several of them, but none so small that its overhead matters
+     */
+    public static int chooseSize(long totalBytes, int workers) {
+        long size = totalBytes / ((long) workers * TASKS_PER_WORKER);
+        return (int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, size));
+    }
+
+    /**
+     * Cuts a document into aligned tasks of about the given size (the edges
+     * inside a word longer than a fragment are not aligned)
+     * @param tasks the list where the tasks are added
+     * @param raf the opened document
+     * @param docName the name of the document
+     * @param docId the id of the document
+     * @param start the offset where the mapping starts, which is not inside
+     * a word (the beginning of the document, or the start of the last word
+     * of an incremental state)
+     * @param size the size of a fragment
+     * @param separators the separators of the words
+     * @return the number of tasks added
+     */
+    public static int addAlignedTasks(List<MapTask> tasks,
+                                      RandomAccessFile raf, String docName,
+                                      int docId, long start, int size,
+                                      Utf8Separators separators)
+            throws IOException {
+        long docLength = raf.length();
+        byte[] chunk = new byte[SCAN_CHUNK];
+        int noTasks = 0;
+
+        // not aligned again: a word starting with stray continuation bytes
+        // would be skipped as the rest of a character
+        long begin = start;
+        boolean beginAligned = true;
+        while (begin < docLength) {
+            long target = Math.min(begin + size, docLength);
+            long limit = Math.min(Math.min(target + size, docLength),
+                                  begin + MAX_TASK);
+            long end = alignEdge(raf, target, limit, docLength, separators,
+                                 chunk);
+            boolean endAligned = end >= 0;
+            if (!endAligned) {
+                end = target;
+            }
+            tasks.add(new MapTask(docName, begin, end - begin, docId,
+                                  beginAligned && endAligned));
+            noTasks++;
+            begin = end;
+            beginAligned = endAligned;
+        }
+        return noTasks;
+    }
+
+    /**
+     * Cuts a gzip document into tasks made of whole members (a member can't
+     * be decompressed from its middle), each one of at least the given size
+     * unless it is the last one; the edges are fixed by the map workers
+     * @param tasks the list where the tasks are added
+     * @param index the members of the document
+     * @param docName the name of the document
+     * @param docId the id of the document
+     * @param size the size of a fragment
+     * @return the number of tasks added
+     */
+    public static int addMemberTasks(List<MapTask> tasks, GzipIndex index,
+                                     String docName, int docId, int size) {
+        int noTasks = 0;
+        long begin = 0;
+        for (int i = 0; i < index.getMemberCount(); i++) {
+            long end = index.getOffset(i) + index.getSize(i);
+            if (end - begin >= size || i == index.getMemberCount() - 1) {
+                if (end > begin) {
+                    tasks.add(new MapTask(docName, begin, end - begin,
+                                          docId));
+                    noTasks++;
+                }
+                begin = end;
+            }
+        }
+        return noTasks;
+    }
+
+    /**
+     * @param offset where the search starts
+     * @param limit where the search stops (at most the end of the document)
+     * @return the first offset in [offset, limit) which is not inside a word
+     * (the end of the document if the limit is that end), or -1 if there is
+     * none; it is never inside a character either
+     */
+    private static long alignEdge(RandomAccessFile raf, long offset,
+                                  long limit, long docLength,
+                                  Utf8Separators separators, byte[] chunk)
+            throws IOException {
+        if (offset <= 0 || offset >= docLength) {
+            return Math.min(Math.max(offset, 0), docLength);
+        }
+
+        final int around = Utf8Separators.MAX_CHAR_BYTES;
+        long position = offset;
+        while (position < limit) {
+            // the chunk also holds the bytes around the edges being checked,
+            // for decoding the characters before and after them
+            long chunkStart = Math.max(0, position - around);
+            int read = (int) Math.min(chunk.length, docLength - chunkStart);
+            raf.seek(chunkStart);
+            raf.readFully(chunk, 0, read);
+            ByteBuffer data = ByteBuffer.wrap(chunk, 0, read);
+            boolean last = chunkStart + read == docLength;
+            int end = (int) Math.min(last ? read : read - around,
+                                     limit - chunkStart);
+
+            for (int i = (int) (position - chunkStart); i < end; i++) {
+                if (Utf8Separators.isContinuation(chunk[i] & 0xFF)) {
+                    continue;
+                }
+                if (separators.lengthBefore(data, 0, i) > 0
+                        || separators.lengthAt(data, i, read) > 0) {
+                    return chunkStart + i;
+                }
+            }
+            position = chunkStart + end;
+        }
+        return limit == docLength ? docLength : -1;
+    }
+}
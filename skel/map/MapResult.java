@@ -1,33 +1,68 @@
 package map;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import util.LengthHistogram;
+import util.LongestWords;
 
 
 public class MapResult {
     /** the document to which belongs the fragment result */
     private String docName;
     /** [{length : apps}] */
-    private Map<Integer, Integer> dictionary;
-    private List<String> longestWords;
+    private LengthHistogram dictionary;
+    private LongestWords longestWords;
+    /** how many fragments of the document were folded into this result */
+    private int fragments;
 
     public MapResult(String docName) {
+        this(docName, LongestWords.DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param docName the document to which belongs the result
+     * @param wordsLimit how many distinct longest words are kept at most,
+     * LongestWords.EXACT for all of them
+     */
+    public MapResult(String docName, int wordsLimit) {
         this.docName = docName;
-        dictionary = new HashMap<>();
-        longestWords = new ArrayList<>();
+        dictionary = new LengthHistogram();
+        longestWords = new LongestWords(wordsLimit);
     }
 
     public String getDocName() {
         return docName;
     }
 
-    public Map<Integer, Integer> getDictionary() {
+    public LengthHistogram getDictionary() {
         return dictionary;
     }
 
-    public List<String> getLongestWords() {
+    public LongestWords getLongestWords() {
         return longestWords;
     }
+
+    /**
+     * @return the length of the longest words kept (0 if there are none)
+     */
+    public int getLongestLength() {
+        return longestWords.getLength();
+    }
+
+    public int getFragments() {
+        return fragments;
+    }
+
+    /** Marks one more fragment as included in this result */
+    public void addFragment() {
+        fragments++;
+    }
+
+    /**
+     * Folds another result of the same document into this one
+     * @param other the result which is merged, it remains unchanged
+     */
+    public void merge(MapResult other) {
+        dictionary.merge(other.dictionary);
+        fragments += other.fragments;
+        longestWords.merge(other.longestWords);
+    }
 }
@@ -0,0 +1,17 @@
+package map;
+
+
+/**
+ * Receives the results of the map tasks as soon as they are calculated,
+ * instead of keeping them in the shared results array
+ */
+public interface MapResultSink {
+    /**
+     * Called by a map worker after finishing a task (it can be called
+     * concurrently by several workers)
+     * @param taskIndex the index of the task in the tasks list
+     * @param task the processed task
+     * @param result the result for the task
+     */
+    void accept(int taskIndex, MapTask task, MapResult result);
+}
@@ -6,12 +6,23 @@ public class MapTask {
     private final long startOffset;
     private final long dim;
     private final int docId;
+    /**
+     * whether the fragment starts and ends between words, so it can be
+     * tokenized as it is, without looking at its neighbours
+     */
+    private final boolean aligned;
 
     public MapTask(String docName, long startOffset, long dim, int docId) {
+        this(docName, startOffset, dim, docId, false);
+    }
+
+    public MapTask(String docName, long startOffset, long dim, int docId,
+                   boolean aligned) {
         this.docName = docName;
         this.startOffset = startOffset;
         this.dim = dim;
         this.docId = docId;
+        this.aligned = aligned;
     }
 
     public String getDocName() {
@@ -29,4 +40,8 @@ public class MapTask {
     public int getDocId() {
         return docId;
     }
+
+    public boolean isAligned() {
+        return aligned;
+    }
 }
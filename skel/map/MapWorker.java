@@ -2,11 +2,29 @@ package map;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.BufferPool;
+import util.GzipIndex;
+import util.LengthHistogram;
+import util.LongestWords;
+import util.Metrics;
+import util.Utf8Separators;
+import util.WorkerStats;
 
 
 public class MapWorker extends Thread {
+    /** the bytes read at once while searching the end of a long word */
+    private static final int SCAN_CHUNK = 4096;
+    /** the most bytes decompressed at once from a gzip document */
+    private static final int GZIP_WINDOW = 1 << 20;
+
     private int id;
     private int p;
     private List<MapTask> tasks;
@@ -16,13 +34,127 @@ public class MapWorker extends Thread {
     private int D;
     /**
      * the buffer where the instances of this class will put the results;
-     * each thread fills a subinterval from this array
+     * each thread fills the positions of the tasks it has processed
      */
     private MapResult[] mapResults;
+    /**
+     * the documents mapped into memory, shared by all the map workers (only
+     * absolute reads are made, so the position of a buffer is never touched);
+     * null if the memory mapping mode is not used, and a null entry for a
+     * document that could not be mapped
+     */
+    private MappedByteBuffer[] docBuffers;
+    /**
+     * the index of the next task not yet taken by any worker, shared by all
+     * the map workers when the tasks are handed out dynamically; null if each
+     * worker processes its own fixed subinterval
+     */
+    private AtomicInteger taskCursor;
+    /** how many consecutive tasks are taken at once from taskCursor */
+    private int chunkSize;
+    /** the tasks taken by this worker and not processed yet: [next, end) */
+    private int nextTask;
+    private int endTask;
+    /**
+     * the threads which read ahead the fragments of this worker, shared by
+     * all the map workers; null if each worker reads its own fragments
+     */
+    private ExecutorService ioPool;
+    /** how many fragments are read ahead */
+    private int prefetchDepth;
+    /** the data read ahead for the task being processed, null if none */
+    private Prefetcher.Fetched fetched;
+    /**
+     * where the results are passed as soon as they are ready; null if they
+     * are stored into mapResults
+     */
+    private MapResultSink resultSink;
+    /**
+     * whether the consecutive fragments of the same document are folded into
+     * a single result before being delivered
+     */
+    private boolean combining;
+    /** the counters of this worker; null if the metrics are not collected */
+    private WorkerStats stats;
+    /** the result where the current document is folded while combining */
+    private MapResult partial;
+    /** the first task folded into partial, where the result is delivered */
+    private int partialIndex;
+    private MapTask partialTask;
+
+    /** the document opened for the last task processed by this worker */
+    private String currentDocName;
+    private RandomAccessFile fileAccess;
+    private byte[] fileDataBuffer;
+    private ByteBuffer fileData;
+    /**
+     * where fileDataBuffer is taken from and given back at the end of run();
+     * null if it is allocated by the worker
+     */
+    private BufferPool bufferPool;
+    /** for checking the chars which are next to a fragment */
+    private final byte[] charBuffer = new byte[1];
+    /** for reading ahead the end of a word which leaves its fragment */
+    private final byte[] scanBuffer = new byte[SCAN_CHUNK];
+    private final ByteBuffer scanData = ByteBuffer.wrap(scanBuffer);
+
+    /**
+     * whether the longest words are kept in the results; the output doesn't
+     * need them, so they can be skipped entirely
+     */
+    private boolean collectLongestWords = true;
+    /** how many distinct longest words are kept for a result */
+    private int wordsLimit = LongestWords.DEFAULT_LIMIT;
+    /**
+     * the start indexes of the longest words from the fragment being
+     * processed; the words are materialized only at the end of the fragment
+     */
+    private int[] longestStarts = new int[16];
+    /** the sizes in bytes of the tracked words (their lengths are maxLen) */
+    private int[] longestSizes = new int[16];
+    private int noLongest;
+    /** how many more longest words can be tracked in the fragment */
+    private int longestSlots;
+    /** the buffer being tokenized */
+    private ByteBuffer tokenized;
+    /** the dictionary of the fragment being tokenized */
+    private LengthHistogram dictionary;
+    /** the words counted and the longest length from the fragment */
+    private int noWords;
+    private int maxLen;
+    /**
+     * classifies the bytes by blocks for the vectorized path; null if the
+     * bytes are tested one by one
+     */
+    private SeparatorClassifier classifier;
+    /**
+     * the separators which include non-ASCII characters, decoded from UTF-8
+     * while tokenizing; null if only the ASCII table isSeparator is used
+     */
+    private Utf8Separators unicodeSeparators;
+    /** scratch space for building the strings of the longest words */
+    private byte[] wordBytes = new byte[16];
+    /** the separators of the run, including the ASCII ones */
+    private Utf8Separators separators;
+    /**
+     * the members of each gzip document (null for the other documents),
+     * opened from their index files when they are not given
+     */
+    private GzipIndex[] gzipIndexes;
+    /** decompresses the gzip members; null until the first one */
+    private GzipIndex.Reader gzipReader;
+    /** the member opened in gzipReader (the member count after the last) */
+    private int gzipMember;
 
     public MapWorker(int id, int p, List<MapTask> tasks,
                      boolean[] separatorsMask, long[] docDims, int D,
                      MapResult[] mapResults) {
+        this(id, p, tasks, separatorsMask, docDims, D, mapResults, null);
+    }
+
+    public MapWorker(int id, int p, List<MapTask> tasks,
+                     boolean[] separatorsMask, long[] docDims, int D,
+                     MapResult[] mapResults, MappedByteBuffer[] docBuffers) {
         this.id = id;
         this.p = p;
         this.tasks = tasks;
@@ -30,126 +162,1036 @@ public class MapWorker extends Thread {
         this.docDims = docDims;
         this.D = D;
         this.mapResults = mapResults;
+        this.docBuffers = docBuffers;
+    }
+
+    /**
+     * Instead of a fixed subinterval, the worker repeatedly takes the next
+     * chunkSize tasks from a cursor shared with the other workers, so the
+     * threads that finish early keep on working
+     * @param taskCursor the index of the next free task, shared by workers
+     * @param chunkSize how many tasks are taken at once
+     */
+    public void setTaskCursor(AtomicInteger taskCursor, int chunkSize) {
+        this.taskCursor = taskCursor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * The fragments of the worker are read on the I/O threads, up to depth
+     * tasks ahead of the one being tokenized, so the reads overlap with the
+     * tokenizing (not used for the documents mapped into memory)
+     * @param ioPool the threads doing the reads, shared by the workers
+     * @param depth how many fragments are read ahead
+     */
+    public void setPrefetch(ExecutorService ioPool, int depth) {
+        this.ioPool = ioPool;
+        this.prefetchDepth = depth;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public void setCollectLongestWords(boolean collectLongestWords) {
+        this.collectLongestWords = collectLongestWords;
+    }
+
+    /**
+     * @param wordsLimit how many distinct longest words are kept for a
+     * result, LongestWords.EXACT for all of them
+     */
+    public void setWordsLimit(int wordsLimit) {
+        this.wordsLimit = wordsLimit;
+    }
+
+    public void setResultSink(MapResultSink resultSink) {
+        this.resultSink = resultSink;
+    }
+
+    public void setClassifier(SeparatorClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @param separators the separators of the run; the workers decode the
+     * characters only if some of them are not ASCII, and then the tasks
+     * must be aligned, since a separator may cross the edge of a fragment
+     */
+    public void setSeparators(Utf8Separators separators) {
+        this.separators = separators;
+        unicodeSeparators = separators.hasNonAscii() ? separators : null;
+    }
+
+    /**
+     * @param gzipIndexes the members of each gzip document, by id, shared by
+     * the workers (the missing ones are opened by each worker)
+     */
+    public void setGzipIndexes(GzipIndex[] gzipIndexes) {
+        this.gzipIndexes = gzipIndexes;
+    }
+
+    public void setStats(WorkerStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Enables the map side combiner: the worker folds all the fragments it
+     * takes from a document into one partial result, delivered at the
+     * position of the first of them (the positions of the others remain
+     * null in the results array)
+     */
+    public void setCombining(boolean combining) {
+        this.combining = combining;
     }
 
     @Override
     public void run() {
-        int len = (int) Math.ceil((double) tasks.size() / (double) p);
-        int begin = id * len;
-        int end = Math.min(begin + len - 1, tasks.size() - 1);
-
-        String currentDocName = null;
-        RandomAccessFile fileAccess = null;
-        byte[] fileDataBuffer = null;
-
-        for (int i = begin; i <= end; i++) {
-            // working with one by one task
-            String taskDocName = tasks.get(i).getDocName();
-            MapResult stat = new MapResult(taskDocName);
-
-            if (!taskDocName.equals(currentDocName)) {
-                try {
-                    fileAccess = new RandomAccessFile(taskDocName, "r");
-                    currentDocName = taskDocName;
-                    if (fileDataBuffer == null) {
-                        // We ensure memory also for the case when the last
-                        // word in this fragment exceeds the reserved space;
-                        // Also, we suppose that a word doesn't have a length
-                        // greater than 2 * D
-                        fileDataBuffer = new byte[D * 2];
+        long startNanos = 0;
+        long startAllocated = 0;
+        if (stats != null) {
+            startNanos = System.nanoTime();
+            startAllocated = Metrics.currentThreadAllocatedBytes();
+        }
+        int noTasks = tasks.size();
+
+        if (taskCursor == null) {
+            int len = (int) Math.ceil((double) noTasks / (double) p);
+            nextTask = id * len;
+            endTask = Math.min(nextTask + len, noTasks);
+        }
+
+        if (ioPool != null) {
+            runPrefetched();
+        } else {
+            int i;
+            while ((i = claimTask()) >= 0) {
+                publish(i, tasks.get(i));
+            }
+        }
+
+        flushPartial();
+        closeDocument();
+        if (gzipReader != null) {
+            gzipReader.close();
+            gzipReader = null;
+        }
+        if (bufferPool != null && fileDataBuffer != null) {
+            bufferPool.give(fileDataBuffer);
+            fileDataBuffer = null;
+            fileData = null;
+        }
+
+        if (stats != null) {
+            stats.addBusyNanos(System.nanoTime() - startNanos);
+            stats.addAllocatedBytes(Metrics.currentThreadAllocatedBytes()
+                                    - startAllocated);
+        }
+    }
+
+    /**
+     * @return the index of the next task to be processed by this worker, or
+     * -1 if there are no more tasks for it
+     */
+    private int claimTask() {
+        if (nextTask >= endTask) {
+            if (taskCursor == null) {
+                return -1;
+            }
+            int begin = taskCursor.getAndAdd(chunkSize);
+            if (begin >= tasks.size()) {
+                return -1;
+            }
+            nextTask = begin;
+            endTask = Math.min(begin + chunkSize, tasks.size());
+        }
+        return nextTask++;
+    }
+
+    /**
+     * Processes the tasks in the same order as run() does, while the next
+     * prefetchDepth of them are being read on the I/O threads
+     */
+    private void runPrefetched() {
+        Prefetcher prefetcher = new Prefetcher(ioPool, prefetchDepth);
+        boolean claiming = true;
+        try {
+            while (true) {
+                while (claiming && !prefetcher.isFull()) {
+                    int i = claimTask();
+                    if (i < 0) {
+                        claiming = false;
+                    } else {
+                        MapTask task = tasks.get(i);
+                        prefetcher.submit(i, task, docDims[task.getDocId()]);
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
+                if (prefetcher.isEmpty()) {
+                    break;
+                }
+
+                fetched = prefetcher.take();
+                publish(fetched.taskIndex, fetched.task);
+                prefetcher.release(fetched);
+                fetched = null;
+            }
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Processes a single task outside of run(), for the callers which
+     * receive the tasks one by one; the document of the task remains open
+     * for the next calls, until closeDocument()
+     * @param task the task to be processed
+     * @return the result of the task
+     */
+    public MapResult map(MapTask task) {
+        MapResult result = new MapResult(task.getDocName(), wordsLimit);
+        mapTask(task, result);
+        return result;
+    }
+
+    /** Closes the document opened for the last task, if any */
+    public void closeDocument() {
+        if (fileAccess != null) {
+            try {
+                fileAccess.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fileAccess = null;
+            currentDocName = null;
+        }
+    }
+
+    /**
+     * Processes a task and hands its result either to the sink or to the
+     * shared results array; when combining, the result is folded into the
+     * partial result of the document instead
+     * @param taskIndex the index of the task in the tasks list
+     * @param task the task to be processed
+     */
+    private void publish(int taskIndex, MapTask task) {
+        if (!combining) {
+            MapResult result = new MapResult(task.getDocName(), wordsLimit);
+            mapTask(task, result);
+            deliver(taskIndex, task, result);
+            return;
+        }
+
+        if (partial != null && partialTask.getDocId() != task.getDocId()) {
+            flushPartial();
+        }
+        if (partial == null) {
+            partial = new MapResult(task.getDocName(), wordsLimit);
+            partialIndex = taskIndex;
+            partialTask = task;
+        }
+        mapTask(task, partial);
+    }
+
+    /** Delivers the partial result of the current document, if any */
+    private void flushPartial() {
+        if (partial != null) {
+            deliver(partialIndex, partialTask, partial);
+            partial = null;
+        }
+    }
+
+    private void deliver(int taskIndex, MapTask task, MapResult result) {
+        if (resultSink != null) {
+            resultSink.accept(taskIndex, task, result);
+        } else {
+            mapResults[taskIndex] = result;
+        }
+    }
+
+    /**
+     * Counts the words from a fragment of a document
+     * @param task the fragment to be processed
+     * @param stat the result where the words are counted
+     */
+    private void mapTask(MapTask task, MapResult stat) {
+        String taskDocName = task.getDocName();
+        stat.addFragment();
+        if (stats != null) {
+            stats.addTask();
+        }
+
+        if (unicodeSeparators != null && !task.isAligned()
+                && !GzipIndex.isCompressed(taskDocName)) {
+            // an edge inside a word longer than a fragment, left where it is
+            // by the planner
+            openDocument(taskDocName);
+            mapUnicodeFragment(task, stat);
+            return;
+        }
+        if (docBuffers != null && docBuffers[task.getDocId()] != null) {
+            ByteBuffer doc = docBuffers[task.getDocId()];
+            if (task.isAligned()) {
+                int offset = (int) task.getStartOffset();
+                tokenize(doc, offset, offset + (int) task.getDim() - 1, stat);
+            } else {
+                mapFragment(task, doc, stat);
+            }
+            return;
+        }
+
+        openDocument(taskDocName);
+        if (GzipIndex.isCompressed(taskDocName)) {
+            mapCompressedFragment(task, stat);
+            return;
+        }
+        if (fetched != null && fetched.buffer != null) {
+            mapFetchedFragment(task, stat);
+            return;
+        }
+        if (task.isAligned()) {
+            mapAlignedFragment(task, stat);
+            return;
+        }
+        // used in case that left must be shifted to right
+        long offset = task.getStartOffset();
+        int dim = (int) task.getDim();
+        // only the fragment is kept in memory, the end of a word which
+        // continues after it is scanned separately
+        ensureBuffer(dim);
+
+        int left = findLeftStart(offset, dim, fileAccess, fileDataBuffer);
+        if (left >= dim) {
+            // the whole fragment continues a word of the previous ones
+            return;
+        }
+        long docLength = docDims[task.getDocId()];
+        int tailStart = findTailStart(offset, dim, left, docLength);
+
+        tokenize(fileData, left, tailStart - 1, stat);
+        if (tailStart < dim) {
+            countTailWord(offset + tailStart, dim - tailStart,
+                          Utf8Separators.codePointCount(fileData, tailStart,
+                                                        dim),
+                          docLength, stat);
+        }
+    }
+
+    /**
+     * Makes fileAccess the opened document of a task
+     * @param docName the name of the document
+     */
+    private void openDocument(String docName) {
+        if (docName.equals(currentDocName)) {
+            return;
+        }
+        try {
+            if (fileAccess != null) {
+                fileAccess.close();
             }
+            fileAccess = new RandomAccessFile(docName, "r");
+            currentDocName = docName;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // used in case that left must be shifted to right
-            long offset = tasks.get(i).getStartOffset();
+    /**
+     * Processes a fragment which is not aligned while some separators are
+     * not ASCII (its edge falls inside a word longer than a fragment): the
+     * fragment is read with the characters around it, its first edge is
+     * fixed as for the gzip fragments, and a last word which continues
+     * after it is counted by countTailWord
+     * @param task the fragment to be processed
+     * @param stat the result where the words are counted
+     */
+    private void mapUnicodeFragment(MapTask task, MapResult stat) {
+        long offset = task.getStartOffset();
+        long docLength = docDims[task.getDocId()];
+        int dim = (int) task.getDim();
+        int before = (int) Math.min(Utf8Separators.MAX_CHAR_BYTES, offset);
+        // the bytes which complete the last character of the fragment
+        int after = (int) Math.min(Utf8Separators.MAX_CHAR_BYTES - 1,
+                                   docLength - offset - dim);
+        int start = before;
+        int stop = start + dim;
+        int filled = stop + after;
+        ensureBuffer(filled);
+        try {
+            fileAccess.seek(offset - before);
+            fileAccess.readFully(fileDataBuffer, 0, filled);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
-            long left = findLeftStart(offset, fileAccess, fileDataBuffer);
-            long right = findRightStop(offset, fileAccess, fileDataBuffer,
-                                       docDims[tasks.get(i).getDocId()]);
+        int left = findCharLeftStart(start, stop, before);
+        if (left >= stop) {
+            return;
+        }
+        // the end of the last separator which starts inside the fragment
+        int boundary = left;
+        for (int i = left; i < stop; ) {
+            int separator = unicodeSeparators.lengthAt(fileData, i, filled);
+            if (separator > 0) {
+                i += separator;
+                boundary = i;
+            } else {
+                i++;
+            }
+        }
+
+        if (boundary >= stop || offset + dim == docLength) {
+            tokenize(fileData, left, Math.max(boundary, stop) - 1, stat);
+            return;
+        }
+        if (boundary > left) {
+            tokenize(fileData, left, boundary - 1, stat);
+        }
+        countTailWord(offset + boundary - start, stop - boundary,
+                      Utf8Separators.codePointCount(fileData, boundary, stop),
+                      docLength, stat);
+    }
+
+    /**
+     * Processes a fragment whose edges are already between words: it is
+     * read and tokenized as it is, without the fix-ups of its edges
+     * @param task the fragment to be processed
+     * @param stat the result where the words are counted
+     */
+    private void mapAlignedFragment(MapTask task, MapResult stat) {
+        int dim = (int) task.getDim();
+        ensureBuffer(dim);
+        try {
+            fileAccess.seek(task.getStartOffset());
+            fileAccess.readFully(fileDataBuffer, 0, dim);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        tokenize(fileData, 0, dim - 1, stat);
+    }
+
+    /**
+     * Processes a fragment read ahead by the prefetcher: the buffer holds the
+     * fragment and, if it is not aligned, the bytes around it, so its edges
+     * are fixed in the same way as findLeftStart and findTailStart do, without
+     * any other read (except for a word which continues after the fragment)
+     * @param task the fragment to be processed
+     * @param stat the result where the words are counted
+     */
+    private void mapFetchedFragment(MapTask task, MapResult stat) {
+        ByteBuffer data = fetched.buffer;
+        int base = fetched.base;
+        int stop = base + (int) task.getDim();
+        if (task.isAligned()) {
+            tokenize(data, base, stop - 1, stat);
+            return;
+        }
+
+        int left = base;
+        if (base > 0 && !isSeparator[data.get(base - 1) & 0xFF]) {
+            // the previous fragment has already counted the first word
+            while (left < stop && !isSeparator[data.get(left) & 0xFF])
+                left++;
+        }
+        if (left >= stop) {
+            return;
+        }
 
-            if (left >= D || right >= 2 * D) {
-                mapResults[i] = stat;
+        int tailStart = stop;
+        if (stop < data.limit() && !isSeparator[data.get(stop) & 0xFF]) {
+            // the last word continues after the fragment
+            while (tailStart > left
+                    && !isSeparator[data.get(tailStart - 1) & 0xFF])
+                tailStart--;
+        }
+
+        tokenize(data, left, tailStart - 1, stat);
+        if (tailStart < stop) {
+            long docLength = docDims[task.getDocId()];
+            countTailWord(task.getStartOffset() + tailStart - base,
+                          stop - tailStart,
+                          Utf8Separators.codePointCount(data, tailStart, stop),
+                          docLength, stat);
+        }
+    }
+
+    /**
+     * Processes a fragment of a gzip document, made of whole members: they
+     * are decompressed through the data buffer, a window at a time, after
+     * the last bytes of the previous members (needed for fixing the left
+     * edge), and the members which follow are decompressed too while the
+     * last word of the fragment continues into them. The words which end in
+     * the window are tokenized, and a word which doesn't end there is read
+     * on byte by byte, so the memory doesn't depend on the size of the
+     * members or of the words
+     * @param task the fragment to be processed
+     * @param stat the result where the words are counted
+     */
+    private void mapCompressedFragment(MapTask task, MapResult stat) {
+        GzipIndex index = gzipIndex(task);
+        if (index == null) {
+            return;
+        }
+        if (separators == null) {
+            separators = new Utf8Separators(isSeparator);
+        }
+        if (gzipReader == null) {
+            gzipReader = new GzipIndex.Reader();
+        }
+        ensureBuffer(GZIP_WINDOW);
+        try {
+            streamCompressedFragment(task, index, stat);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void streamCompressedFragment(MapTask task, GzipIndex index,
+                                          MapResult stat) throws IOException {
+        int start = Utf8Separators.MAX_CHAR_BYTES;
+        gzipMember = index.memberAt(task.getStartOffset());
+        int before = copyTails(index, gzipMember, start);
+        gzipReader.open(index, gzipMember, fileAccess);
+        long end = task.getStartOffset() + task.getDim();
+        // the offset in the document of the first byte of the buffer
+        long base = task.getStartOffset() - start;
+        int filled = inflateMore(index, start, end - base + start);
+        if (filled == start) {
+            return;
+        }
+
+        // the character which holds the first byte of the fragment
+        int lead = start;
+        while (lead > start - before
+                && Utf8Separators.isContinuation(fileDataBuffer[lead] & 0xFF))
+            lead--;
+        int pos = start;
+        // whether the word continuing from the previous fragment is skipped
+        boolean skipping = false;
+        if (lead < start) {
+            int separator = separators.lengthAt(fileData, lead, filled);
+            pos = separator > 0 ? lead + separator : lead;
+            skipping = separator == 0;
+        } else if (before > 0
+                && separators.lengthBefore(fileData, start - before,
+                                           start) == 0) {
+            skipping = true;
+        }
+
+        // the word which doesn't end in the window: its offset (-1 if
+        // none), its length so far and how many of its first bytes are kept
+        long wordStart = -1;
+        long wordLen = 0;
+        int kept = 0;
+        // how many bytes are decompressed at once while reading on a word
+        int step = SCAN_CHUNK;
+        while (true) {
+            boolean last = gzipMember == index.getMemberCount();
+            // a character from here on may be cut by the end of the window
+            int limit = last ? filled
+                             : filled - (Utf8Separators.MAX_CHAR_BYTES - 1);
+            long stop = end - base;
+            if (skipping) {
+                while (pos < limit && pos < stop
+                        && separators.lengthAt(fileData, pos, filled) == 0)
+                    pos++;
+                if (pos >= stop) {
+                    return;
+                }
+                skipping = pos >= limit;
+            } else if (wordStart >= 0) {
+                while (pos < limit
+                        && separators.lengthAt(fileData, pos, filled) == 0) {
+                    byte b = fileDataBuffer[pos++];
+                    if (!Utf8Separators.isContinuation(b & 0xFF)) {
+                        wordLen++;
+                    }
+                    if (kept <= LongestWords.MAX_WORD_BYTES) {
+                        if (kept == wordBytes.length) {
+                            wordBytes = Arrays.copyOf(wordBytes,
+                                LongestWords.MAX_WORD_BYTES + 1);
+                        }
+                        wordBytes[kept++] = b;
+                    }
+                }
+                if (pos < limit || last) {
+                    long wordSize = base + pos - wordStart;
+                    int length = countScannedWord(wordSize, wordLen, stat);
+                    if (length > 0) {
+                        stat.getLongestWords().offer(
+                            wordString(wordBytes, wordSize, length));
+                    }
+                    wordStart = -1;
+                    if (base + pos >= end) {
+                        return;
+                    }
+                }
+            } else {
+                // the words up to the last separator of the window (or of
+                // the fragment) are tokenized at once
+                int right = (int) Math.min(limit, stop);
+                int boundary = right;
+                while (boundary > pos && separators.lengthBefore(
+                           fileData, pos, boundary) == 0)
+                    boundary--;
+                if (boundary > pos) {
+                    tokenize(fileData, pos, boundary - 1, stat);
+                    pos = boundary;
+                }
+                if (pos >= stop) {
+                    return;
+                }
+                if (pos < limit) {
+                    int separator = separators.lengthAt(fileData, pos, filled);
+                    if (separator > 0) {
+                        pos += separator;
+                    } else {
+                        wordStart = base + pos;
+                        wordLen = 0;
+                        kept = 0;
+                        step = SCAN_CHUNK;
+                    }
+                    continue;
+                }
+            }
+            if (pos < limit) {
                 continue;
             }
+            if (last) {
+                return;
+            }
+
+            // the bytes not processed yet move to the start of the window
+            int carried = filled - pos;
+            System.arraycopy(fileDataBuffer, pos, fileDataBuffer, 0, carried);
+            base += pos;
+            pos = 0;
+            long want;
+            if (skipping || wordStart >= 0) {
+                want = carried + step;
+                step = (int) Math.min(2L * step, GZIP_WINDOW);
+            } else {
+                want = end - base + Utf8Separators.MAX_CHAR_BYTES;
+            }
+            filled = inflateMore(index, carried, want);
+        }
+    }
+
+    /**
+     * Decompresses the next bytes of a gzip document into the data buffer,
+     * going on with the next members
+     * @param filled the number of bytes already in the buffer
+     * @param want how many bytes should be in the buffer (at most its size
+     * are)
+     * @return the number of bytes in the buffer, fewer than wanted only at
+     * the end of the document
+     */
+    private int inflateMore(GzipIndex index, int filled, long want)
+            throws IOException {
+        int target = (int) Math.min(want, fileDataBuffer.length);
+        while (filled < target && gzipMember < index.getMemberCount()) {
+            int read = gzipReader.read(fileDataBuffer, filled,
+                                       target - filled);
+            if (read >= 0) {
+                filled += read;
+            } else if (++gzipMember < index.getMemberCount()) {
+                gzipReader.open(index, gzipMember, fileAccess);
+            }
+        }
+        return filled;
+    }
 
-            int wordLen = 0;
-            int maxLen = 0;
-            StringBuilder readWord = new StringBuilder();
-            int j = (int) left;
+    /**
+     * Finds where the words of a fragment start in the data buffer, decoding
+     * the characters around its first byte
+     * @param start the index of the fragment in the data buffer
+     * @param stop the index where the fragment ends
+     * @param before how many bytes from before the fragment are in the buffer
+     * @return the index after the word (or the character) which continues
+     * from before the fragment, stop if the whole fragment is inside it
+     */
+    private int findCharLeftStart(int start, int stop, int before) {
+        // the character which holds the first byte of the fragment
+        int lead = start;
+        while (lead > start - before
+                && Utf8Separators.isContinuation(fileDataBuffer[lead] & 0xFF))
+            lead--;
+        int left = start;
+        if (lead < start) {
+            int separator = separators.lengthAt(fileData, lead, stop);
+            left = separator > 0 ? lead + separator : skipWord(lead, stop);
+        } else if (before > 0
+                && separators.lengthBefore(fileData, start - before,
+                                           start) == 0) {
+            // the previous fragment has already counted the first word
+            left = skipWord(start, stop);
+        }
+        return left;
+    }
+
+    /**
+     * @return the index of the first separator from the data buffer, at or
+     * after the given index and before the limit (the limit if there is none)
+     */
+    private int skipWord(int index, int limit) {
+        while (index < limit
+                && separators.lengthAt(fileData, index, limit) == 0)
+            index++;
+        return index;
+    }
+
+    /**
+     * Copies the last bytes before a member (from the members before it)
+     * into the data buffer, right before the given index
+     * @return the number of bytes copied, at most the index
+     */
+    private int copyTails(GzipIndex index, int member, int start) {
+        int copied = 0;
+        for (int i = member - 1; i >= 0 && copied < start; i--) {
+            byte[] tail = index.getTail(i);
+            int count = Math.min(tail.length, start - copied);
+            System.arraycopy(tail, tail.length - count, fileDataBuffer,
+                             start - copied - count, count);
+            copied += count;
+        }
+        return copied;
+    }
 
-            while (j <= right) {
-                while (j <= right && isSeparator[fileDataBuffer[j]]) {
-                    j++;
+    /**
+     * @return the members of the gzip document of the task, or null if they
+     * can't be read
+     */
+    private GzipIndex gzipIndex(MapTask task) {
+        int docId = task.getDocId();
+        if (gzipIndexes == null) {
+            gzipIndexes = new GzipIndex[docDims.length];
+        }
+        if (gzipIndexes[docId] == null) {
+            try {
+                gzipIndexes[docId] = GzipIndex.open(task.getDocName());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return gzipIndexes[docId];
+    }
+
+    /**
+     * Makes the data buffer hold at least a number of bytes
+     * @param size the number of bytes
+     */
+    private void ensureBuffer(int size) {
+        if (fileDataBuffer == null || fileDataBuffer.length < size) {
+            if (bufferPool == null) {
+                fileDataBuffer = new byte[size];
+            } else {
+                if (fileDataBuffer != null) {
+                    bufferPool.give(fileDataBuffer);
                 }
+                fileDataBuffer = bufferPool.take(size);
+            }
+            fileData = ByteBuffer.wrap(fileDataBuffer);
+        }
+    }
+
+    /**
+     * Processes a fragment directly from the memory mapped document, so there
+     * are no copies into a data buffer and no seeks; the fragment edges are
+     * adjusted in the same way as findLeftStart and findRightStop do
+     * @param task the fragment to be processed
+     * @param doc the whole document mapped into memory
+     * @param stat the result where the words are counted
+     */
+    private void mapFragment(MapTask task, ByteBuffer doc, MapResult stat) {
+        int offset = (int) task.getStartOffset();
+        int stop = offset + (int) task.getDim();
+        int docLength = doc.limit();
+        int left = offset;
+
+        if (offset > 0 && !isSeparator[doc.get(offset - 1) & 0xFF]) {
+            // the previous fragment has already counted the first word
+            while (left < stop && !isSeparator[doc.get(left) & 0xFF])
+                left++;
+        }
+
+        if (left >= stop) {
+            return;
+        }
+
+        int right = stop - 1;
+        if (stop < docLength && !isSeparator[doc.get(right) & 0xFF]) {
+            // the last word is finished by this fragment
+            while (right + 1 < docLength
+                    && !isSeparator[doc.get(right + 1) & 0xFF])
+                right++;
+        }
+
+        tokenize(doc, left, right, stat);
+    }
+
+    /**
+     * Counts the words found between two indexes (inclusive) of a buffer,
+     * adding them to the ones already counted in the result;
+     * the words are tracked only as (start, size) spans in the buffer, so
+     * nothing is allocated per word; the length of a word is the number of
+     * its UTF-8 characters, counted only for the words which are not ASCII
+     * @param data the buffer with the content of the document
+     * @param left the index where the search starts
+     * @param right the index where the search stops
+     * @param stat the result where the words are counted
+     */
+    private void tokenize(ByteBuffer data, int left, int right,
+                          MapResult stat) {
+        dictionary = stat.getDictionary();
+        tokenized = data;
+        noWords = 0;
+        // the words shorter than the ones already kept are not tracked
+        LongestWords longestWords = stat.getLongestWords();
+        maxLen = longestWords.getLength();
+        noLongest = 0;
+        longestSlots = longestWords.remaining();
 
-                while (j <= right && !isSeparator[fileDataBuffer[j]]) {
-                    readWord.append((char) fileDataBuffer[j]);
-                    wordLen++;
-                    j++;
+        int j = left;
+        if (unicodeSeparators != null) {
+            scanCodePoints(data, left, right);
+            j = right + 1;
+        } else if (classifier != null) {
+            j = scanBlocks(data, left, right);
+        }
+
+        while (j <= right) {
+            while (j <= right && isSeparator[data.get(j) & 0xFF]) {
+                j++;
+            }
+
+            int wordStart = j;
+            // the bytes of the word or-ed, negative if it is not ASCII
+            int bits = 0;
+            while (j <= right && !isSeparator[data.get(j) & 0xFF]) {
+                bits |= data.get(j);
+                j++;
+            }
+            countWord(wordStart, j - wordStart, bits >= 0 ? j - wordStart
+                      : Utf8Separators.codePointCount(data, wordStart, j));
+        }
+
+        if (stats != null) {
+            stats.addScanned(right - left + 1, noWords);
+        }
+
+        if (collectLongestWords && noLongest > 0) {
+            // only the words which remained the longest become strings
+            for (int k = 0; k < noLongest; k++) {
+                int size = longestSizes[k];
+                int copied = Math.min(size, LongestWords.MAX_WORD_BYTES + 1);
+                if (wordBytes.length < copied) {
+                    wordBytes = new byte[copied];
                 }
+                data.get(longestStarts[k], wordBytes, 0, copied);
+                longestWords.offer(wordString(wordBytes, size, maxLen));
+            }
+        }
+    }
+
+    /**
+     * Counts the words from the whole blocks of the interval, classifying
+     * 64 bytes at once; a word which isn't finished by the last block is
+     * completed byte by byte. The characters of a word are counted one by
+     * one only if a block it touches has non-ASCII bytes
+     * @param data the buffer with the content of the document
+     * @param left the index where the search starts
+     * @param right the index where the search stops
+     * @return the index from where the rest of the interval must be scanned
+     */
+    private int scanBlocks(ByteBuffer data, int left, int right) {
+        final int block = SeparatorClassifier.BLOCK;
+        int blocksEnd = left + (right - left + 1) / block * block;
+        // the start of the word being read, -1 if between words
+        int wordStart = -1;
+        // whether the blocks of the word read so far are ASCII
+        boolean wordAscii = true;
+
+        for (int base = left; base < blocksEnd; base += block) {
+            long letters = ~classifier.separatorBits(data, base);
+            long high = 0;
+            for (int k = 0; k < block; k += Long.BYTES) {
+                high |= data.getLong(base + k);
+            }
+            boolean blockAscii = (high & 0x8080808080808080L) == 0;
+            wordAscii &= blockAscii;
+            int pos = 0;
 
-                if (wordLen > maxLen) {
-                    maxLen = wordLen;
-                    stat.getLongestWords().clear();
-                    stat.getLongestWords().add(readWord.toString());
-                } else if (wordLen == maxLen && wordLen != 0) {
-                    stat.getLongestWords().add(readWord.toString());
+            while (true) {
+                if (wordStart < 0) {
+                    long starts = letters & (-1L << pos);
+                    if (starts == 0) {
+                        break;
+                    }
+                    pos = Long.numberOfTrailingZeros(starts);
+                    wordStart = base + pos;
+                    wordAscii = blockAscii;
+                }
+                long stops = ~letters & (-1L << pos);
+                if (stops == 0) {
+                    // the word continues into the next block
+                    break;
                 }
+                pos = Long.numberOfTrailingZeros(stops);
+                countBlockWord(data, wordStart, base + pos, wordAscii);
+                wordStart = -1;
+            }
+        }
 
-                if (stat.getDictionary().containsKey(wordLen)) {
-                    var old = stat.getDictionary().get(wordLen);
-                    stat.getDictionary().replace(wordLen, old, old + 1);
-                } else if (wordLen != 0) {
-                    stat.getDictionary().put(wordLen, 1);
+        int j = blocksEnd;
+        if (wordStart >= 0) {
+            while (j <= right && !isSeparator[data.get(j) & 0xFF]) {
+                wordAscii &= data.get(j) >= 0;
+                j++;
+            }
+            countBlockWord(data, wordStart, j, wordAscii);
+        }
+        return j;
+    }
+
+    private void countBlockWord(ByteBuffer data, int wordStart, int wordEnd,
+                                boolean ascii) {
+        countWord(wordStart, wordEnd - wordStart, ascii ? wordEnd - wordStart
+                  : Utf8Separators.codePointCount(data, wordStart, wordEnd));
+    }
+
+    /**
+     * Counts the words of the interval when some separators are not ASCII:
+     * each non-ASCII character which starts like a separator is decoded
+     * (the tasks are aligned, so no separator crosses the interval)
+     * @param data the buffer with the content of the document
+     * @param left the index where the search starts
+     * @param right the index where the search stops
+     */
+    private void scanCodePoints(ByteBuffer data, int left, int right) {
+        int limit = right + 1;
+        int j = left;
+        while (j <= right) {
+            int separator;
+            while (j <= right
+                    && (separator = unicodeSeparators.lengthAt(data, j,
+                                                               limit)) > 0) {
+                j += separator;
+            }
+
+            int wordStart = j;
+            int length = 0;
+            while (j <= right && unicodeSeparators.lengthAt(data, j,
+                                                            limit) == 0) {
+                if (!Utf8Separators.isContinuation(data.get(j) & 0xFF)) {
+                    length++;
                 }
+                j++;
+            }
+            countWord(wordStart, j - wordStart, length);
+        }
+    }
+
+    /**
+     * Adds a word to the fragment being tokenized
+     * @param wordStart the index of the word in the buffer
+     * @param wordSize the number of bytes of the word (nothing is done for 0)
+     * @param wordLen the length of the word, in characters
+     */
+    private void countWord(int wordStart, int wordSize, int wordLen) {
+        if (wordSize == 0) {
+            return;
+        }
+        dictionary.increment(wordLen);
+        noWords++;
 
-                wordLen = 0;
-                readWord.delete(0, readWord.length());
+        if (wordLen > maxLen) {
+            maxLen = wordLen;
+            noLongest = 0;
+            longestSlots = wordsLimit == LongestWords.EXACT
+                           ? Integer.MAX_VALUE : wordsLimit;
+        }
+        if (wordLen == maxLen && collectLongestWords
+                && noLongest < longestSlots
+                && !isTracked(wordStart, wordSize)) {
+            if (noLongest == longestStarts.length) {
+                longestStarts = Arrays.copyOf(longestStarts, 2 * noLongest);
+                longestSizes = Arrays.copyOf(longestSizes, 2 * noLongest);
             }
-            Arrays.fill(fileDataBuffer, (byte) 0);
-            mapResults[i] = stat;
+            longestStarts[noLongest] = wordStart;
+            longestSizes[noLongest++] = wordSize;
         }
     }
 
+    /**
+     * Checks if a word equal to the given one is already tracked in the
+     * fragment; only done for a bounded number of words, so the duplicates
+     * don't take the places of distinct words
+     * @param wordStart the index of the word in the buffer
+     * @param wordSize the number of bytes of the word
+     * @return true if the word is a duplicate
+     */
+    private boolean isTracked(int wordStart, int wordSize) {
+        if (wordsLimit == LongestWords.EXACT) {
+            // the duplicates are dropped when the strings are built
+            return false;
+        }
+        for (int k = 0; k < noLongest; k++) {
+            if (longestSizes[k] != wordSize) {
+                continue;
+            }
+            int other = longestStarts[k];
+            int i = 0;
+            while (i < wordSize && tokenized.get(other + i)
+                                   == tokenized.get(wordStart + i)) {
+                i++;
+            }
+            if (i == wordSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Calculates the index in the data buffer where the search can start for
      * a certain fragment based on the following parameters
      * @param offset the offset in the file
+     * @param dim the size of the fragment
      * @param fileAccess the RandomAccessFile object for the specific document
      * @param fileDataBuffer the byte array for taking the data from the file
-     * @return the index for searching start
+     * @return the index for searching start (dim if the whole fragment
+     * continues the previous last word)
      */
-    private int findLeftStart(long offset, RandomAccessFile fileAccess,
+    private int findLeftStart(long offset, int dim,
+                              RandomAccessFile fileAccess,
                               byte[] fileDataBuffer) {
-        // for checking the last char from the previous fragment
-        byte[] charBuffer = new byte[1];
         // return variable
         int left = 0;
 
         // read the required fragment
         try {
             fileAccess.seek(offset);
-            fileAccess.read(fileDataBuffer, 0, D);
+            fileAccess.read(fileDataBuffer, 0, dim);
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        if (offset > 0 && !isSeparator[fileDataBuffer[0]]) {
+        if (offset > 0 && !isSeparator[fileDataBuffer[0] & 0xFF]) {
             // check whether the fragment start continues the previous last
             // word
             try {
                 fileAccess.seek(offset - 1);
                 // read the last char from the previous fragment
                 fileAccess.read(charBuffer, 0, 1);
-                if (!isSeparator[charBuffer[0]]) {
+                if (!isSeparator[charBuffer[0] & 0xFF]) {
                     left = 0;
                     // iterate until the next separator
                     // (because there you can start processing this fragment
                     // without overlapping with the previous)
-                    while (left < D && !isSeparator[fileDataBuffer[left]])
+                    while (left < dim
+                            && !isSeparator[fileDataBuffer[left] & 0xFF])
                         left++;
                 }
             } catch (IOException e) {
@@ -161,49 +1203,154 @@ public class MapWorker extends Thread {
     }
 
     /**
-     * Calculates the index in the data buffer where the search must stop for
-     * a certain fragment based on the following parameters (it is assumed that
-     * a word doesn't exceeds a 2 * D length)
-     * @param offset the offset in the file
-     * @param fileAccess the RandomAccessFile object for the specific document
-     * @param fileDataBuffer the byte array for taking the data from the file
-     * @return the index for searching stop
+     * Finds the last word of a fragment which continues after the fragment;
+     * it is not tokenized with the rest, since its end is not in the buffer
+     * @param offset the offset of the fragment in the file
+     * @param dim the size of the fragment (its bytes are in the buffer)
+     * @param left the index where the tokenizing starts
+     * @param docLength the size of the document
+     * @return the index where the last word starts, or dim if the fragment
+     * doesn't end inside a word
      */
-    private int findRightStop(long offset, RandomAccessFile fileAccess,
-                              byte[] fileDataBuffer, long docLength) {
-        // for checking the first char from the next fragment
-        byte[] charBuffer = new byte[1];
-        // return variable
-        int right = D - 1;
-
+    private int findTailStart(long offset, int dim, int left,
+                              long docLength) {
+        if (offset + dim >= docLength
+                || isSeparator[fileDataBuffer[dim - 1] & 0xFF]) {
+            return dim;
+        }
         try {
-            fileAccess.seek(offset + D - 1);
+            fileAccess.seek(offset + dim);
             fileAccess.read(charBuffer, 0, 1);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (isSeparator[charBuffer[0] & 0xFF]) {
+            return dim;
+        }
 
-        // verify to don't be the last fragment from the doc
-        if (offset < docLength - D && !isSeparator[charBuffer[0]]) {
-            // check whether the fragment end continues on the next
-            try {
-                // read the next fragment and in the same time fill the
-                // second part of the buffer
-                fileAccess.seek(offset + D);
-                fileAccess.read(fileDataBuffer, D, D);
-                if (!isSeparator[fileDataBuffer[D]]) {
-                    right = D;
-                    // iterate until the next separator
-                    // (because there you can stop processing the fragment
-                    // without overlapping with the next)
-                    while (!isSeparator[fileDataBuffer[right]])
-                        right++;
+        int tailStart = dim;
+        while (tailStart > left
+                && !isSeparator[fileDataBuffer[tailStart - 1] & 0xFF])
+            tailStart--;
+        return tailStart;
+    }
+
+    /**
+     * Counts a word which starts in the fragment and continues after it: its
+     * end is found by reading ahead through a small buffer, as far as needed,
+     * so the length of a word is not limited by the size of the fragments;
+     * the word itself is read again only if it is among the longest ones,
+     * and then only its first LongestWords.MAX_WORD_BYTES bytes
+     * @param wordStart the offset of the word in the file
+     * @param knownSize the bytes of the word inside the fragment
+     * @param knownLength the characters of the word inside the fragment
+     * @param docLength the size of the document
+     * @param stat the result where the word is counted
+     */
+    private void countTailWord(long wordStart, int knownSize, int knownLength,
+                               long docLength, MapResult stat) {
+        long position = wordStart + knownSize;
+        long wordLen = knownLength;
+        boolean ended = false;
+        try {
+            fileAccess.seek(position);
+            // the bytes of a character which may be cut by the end of the
+            // scan buffer, moved to its start for the next read
+            int carried = 0;
+            while (!ended && position < docLength) {
+                int read = fileAccess.read(scanBuffer, carried,
+                                           SCAN_CHUNK - carried);
+                if (read <= 0) {
+                    break;
+                }
+                int limit = carried + read;
+                int end = unicodeSeparators == null
+                          || position + limit >= docLength
+                          ? limit : limit - (Utf8Separators.MAX_CHAR_BYTES - 1);
+                int i = 0;
+                while (i < end && !isScannedSeparator(i, limit)) {
+                    if (!Utf8Separators.isContinuation(scanBuffer[i] & 0xFF)) {
+                        wordLen++;
+                    }
+                    i++;
                 }
+                position += i;
+                ended = i < end;
+                carried = limit - i;
+                System.arraycopy(scanBuffer, i, scanBuffer, 0, carried);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        long wordSize = position - wordStart;
+        int length = countScannedWord(wordSize, wordLen, stat);
+        if (length > 0) {
+            int copied = (int) Math.min(wordSize,
+                                        LongestWords.MAX_WORD_BYTES + 1);
+            if (wordBytes.length < copied) {
+                wordBytes = new byte[copied];
+            }
+            try {
+                fileAccess.seek(wordStart);
+                fileAccess.readFully(wordBytes, 0, copied);
             } catch (IOException e) {
                 e.printStackTrace();
+                return;
             }
+            stat.getLongestWords().offer(wordString(wordBytes, wordSize,
+                                                    length));
         }
+    }
 
-        return right;
+    /**
+     * Counts a word which was read outside tokenize
+     * @param wordSize the number of bytes of the word
+     * @param wordLen the length of the word, in characters
+     * @param stat the result where the word is counted
+     * @return the length counted, if the word must be offered to the longest
+     * words, or 0 if not
+     */
+    private int countScannedWord(long wordSize, long wordLen,
+                                 MapResult stat) {
+        // the lengths are counted as ints, a word of over 2^31 characters
+        // is counted with the greatest one
+        int length = (int) Math.min(wordLen, Integer.MAX_VALUE);
+        stat.getDictionary().increment(length);
+        if (stats != null) {
+            stats.addScanned(wordSize, 1);
+        }
+        return collectLongestWords && stat.getLongestWords().accepts(length)
+               ? length : 0;
+    }
+
+    /**
+     * @param bytes the bytes of a word, at least LongestWords.MAX_WORD_BYTES
+     * + 1 of them if it is longer
+     * @param size the number of bytes of the whole word
+     * @param length the length of the whole word, in characters
+     * @return the word, or its placeholder if it has too many bytes
+     */
+    private static String wordString(byte[] bytes, long size, int length) {
+        if (size <= LongestWords.MAX_WORD_BYTES) {
+            return new String(bytes, 0, (int) size, StandardCharsets.UTF_8);
+        }
+        // the prefix doesn't cut a character
+        int kept = LongestWords.MAX_WORD_BYTES;
+        while (kept > 0 && Utf8Separators.isContinuation(bytes[kept] & 0xFF))
+            kept--;
+        return LongestWords.placeholder(
+            new String(bytes, 0, kept, StandardCharsets.UTF_8), length);
+    }
+
+    /**
+     * @param index an index in the scan buffer
+     * @param limit the number of bytes in the scan buffer
+     * @return whether a separator starts at the index
+     */
+    private boolean isScannedSeparator(int index, int limit) {
+        return unicodeSeparators == null
+               ? isSeparator[scanBuffer[index] & 0xFF]
+               : unicodeSeparators.lengthAt(scanData, index, limit) > 0;
     }
 }
@@ -0,0 +1,210 @@
+package map;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import util.GzipIndex;
+
+
+/**
+ * Reads ahead the fragments of a map worker on a pool of I/O threads, so the
+ * disk works on the next fragments while the worker tokenizes the current
+ * one. At most depth reads are in progress and each of them fills one of
+ * depth direct buffers, which are reused from task to task.
+ */
+class Prefetcher {
+    /**
+     * the smaller fragments are read by the worker itself, since handing the
+     * read to another thread costs more than the read
+     */
+    static final int MIN_DIM = 32 << 10;
+    private static final Future<?> DONE
+        = CompletableFuture.completedFuture(null);
+
+    /** the data of a task, read (or being read) into a buffer */
+    static final class Fetched {
+        final int taskIndex;
+        final MapTask task;
+        /** the bytes read; the fragment starts at the index base */
+        ByteBuffer buffer;
+        int base;
+        private Future<?> read;
+
+        private Fetched(int taskIndex, MapTask task) {
+            this.taskIndex = taskIndex;
+            this.task = task;
+        }
+    }
+
+    private final ExecutorService ioPool;
+    private final int depth;
+    /** the reads in progress, in the order of their tasks */
+    private final ArrayDeque<Fetched> pending = new ArrayDeque<>();
+    /** the buffers not used by any task */
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    /** the documents opened recently, closed when they get old */
+    private final Map<String, FileChannel> channels;
+
+    /**
+     * @param ioPool the threads which do the reads, shared by the workers
+     * @param depth how many fragments are read ahead
+     */
+    Prefetcher(ExecutorService ioPool, int depth) {
+        this.ioPool = ioPool;
+        this.depth = depth;
+        // a document may be closed only after its reads are over, and there
+        // are never more than depth of them
+        channels = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, FileChannel> eldest) {
+                if (size() <= depth + 1) {
+                    return false;
+                }
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    boolean isFull() {
+        return pending.size() >= depth;
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Starts reading a task, if it is not too small: the whole fragment and,
+     * for the fragments which are not aligned, the byte before and the byte
+     * after it, needed for fixing its edges
+     * @param taskIndex the index of the task
+     * @param task the task to be read
+     * @param docLength the size of the document of the task
+     */
+    void submit(int taskIndex, MapTask task, long docLength) {
+        long offset = task.getStartOffset();
+        long from = offset;
+        long to = offset + task.getDim();
+        if (!task.isAligned()) {
+            from = Math.max(0, offset - 1);
+            to = Math.min(docLength, to + 1);
+        }
+
+        Fetched fetched = new Fetched(taskIndex, task);
+        pending.add(fetched);
+        fetched.read = DONE;
+        if (task.getDim() < MIN_DIM
+                || GzipIndex.isCompressed(task.getDocName())) {
+            // the members of a gzip document are read by the worker, which
+            // decompresses them
+            return;
+        }
+        FileChannel channel;
+        try {
+            channel = channel(task.getDocName());
+        } catch (IOException e) {
+            // the worker will try to read the task by itself
+            e.printStackTrace();
+            return;
+        }
+
+        fetched.base = (int) (offset - from);
+        fetched.buffer = takeBuffer((int) (to - from));
+        ByteBuffer buffer = fetched.buffer;
+        final long start = from;
+        fetched.read = ioPool.submit(() -> {
+            long position = start;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the oldest read in progress
+     * @return the data of the task, which must be released after its use; its
+     * buffer is null if the task was not read ahead or if the read failed
+     */
+    Fetched take() {
+        Fetched fetched = pending.poll();
+        try {
+            fetched.read.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            release(fetched);
+        } catch (InterruptedException e) {
+            // the read may still be writing into the buffer, it is dropped
+            Thread.currentThread().interrupt();
+            fetched.buffer = null;
+        }
+        return fetched;
+    }
+
+    /** Makes the buffer of a task available for the next reads */
+    void release(Fetched fetched) {
+        if (fetched.buffer != null) {
+            free.add(fetched.buffer);
+            fetched.buffer = null;
+        }
+    }
+
+    /** Waits for the reads in progress and closes the documents */
+    void close() {
+        while (!pending.isEmpty()) {
+            release(take());
+        }
+        for (FileChannel channel : channels.values()) {
+            close(channel);
+        }
+        channels.clear();
+    }
+
+    /**
+     * @param size the number of bytes needed
+     * @return a free buffer (grown if it is too small), with the limit set to
+     * the size
+     */
+    private ByteBuffer takeBuffer(int size) {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    private FileChannel channel(String docName) throws IOException {
+        FileChannel channel = channels.get(docName);
+        if (channel == null) {
+            channel = FileChannel.open(Path.of(docName),
+                                       StandardOpenOption.READ);
+            channels.put(docName, channel);
+        }
+        return channel;
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package map;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Classifies a block of 64 bytes at once against the set of separators, so
+ * that the word boundaries are found with bit operations instead of a test
+ * for every byte
+ */
+public interface SeparatorClassifier {
+    /** the number of bytes classified by a call */
+    int BLOCK = 64;
+
+    /**
+     * @param data the buffer with the content of the document
+     * @param base the index of the first byte of the block
+     * @return a mask having the bit i set if data[base + i] is a separator
+     */
+    long separatorBits(ByteBuffer data, int base);
+
+    /**
+     * Loads the implementation based on the Vector API; it is compiled
+     * separately (make simd) and needs the jdk.incubator.vector module at
+     * runtime (java --add-modules jdk.incubator.vector)
+     * @param separatorsMask the separators used by the map workers
+     * @return the classifier, or null if it is not available
+     */
+    static SeparatorClassifier loadVectorized(boolean[] separatorsMask) {
+        try {
+            return (SeparatorClassifier) Class
+                .forName("map.VectorSeparatorClassifier")
+                .getConstructor(boolean[].class)
+                .newInstance((Object) separatorsMask);
+        } catch (ReflectiveOperationException | LinkageError
+                 | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package map;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Classifies the bytes with the Vector API, as two table lookups: the low
+ * nibble of a byte selects the set of high nibbles which make it a
+ * separator, and the high nibble selects its own bit from that set. Only
+ * the ASCII bytes can be separators (they have 8 high nibbles, i.e. one bit
+ * for each in a byte). The bytes are loaded from the array of a heap buffer,
+ * or from a copy of the block for a direct one (fromByteBuffer was removed
+ * from the API in JDK 21, fromMemorySegment doesn't exist in JDK 17).
+ */
+public class VectorSeparatorClassifier implements SeparatorClassifier {
+    private static final VectorSpecies<Byte> SPECIES
+        = ByteVector.SPECIES_PREFERRED;
+    /** the copy of a block of a direct buffer, for each thread */
+    private static final ThreadLocal<byte[]> COPIES
+        = ThreadLocal.withInitial(() -> new byte[BLOCK]);
+
+    /** for each low nibble, the bits of the high nibbles of separators */
+    private final ByteVector lowTable;
+    /** for each high nibble, its bit (0 for the non ASCII nibbles) */
+    private final ByteVector highTable;
+
+    public VectorSeparatorClassifier(boolean[] separatorsMask) {
+        int lanes = SPECIES.length();
+        if (lanes < 16 || BLOCK % lanes != 0) {
+            // a table of 16 entries must fit into a vector
+            throw new UnsupportedOperationException("Vectors too short");
+        }
+
+        byte[] low = new byte[lanes];
+        byte[] high = new byte[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            int nibble = lane % 16;
+            for (int h = 0; h < 8; h++) {
+                if (separatorsMask[h * 16 + nibble]) {
+                    low[lane] |= (byte) (1 << h);
+                }
+            }
+            high[lane] = nibble < 8 ? (byte) (1 << nibble) : 0;
+        }
+        lowTable = ByteVector.fromArray(SPECIES, low, 0);
+        highTable = ByteVector.fromArray(SPECIES, high, 0);
+    }
+
+    @Override
+    public long separatorBits(ByteBuffer data, int base) {
+        byte[] array;
+        int offset;
+        if (data.hasArray()) {
+            array = data.array();
+            offset = data.arrayOffset() + base;
+        } else {
+            array = COPIES.get();
+            offset = 0;
+            data.get(base, array, 0, BLOCK);
+        }
+
+        long bits = 0;
+        for (int i = 0; i < BLOCK; i += SPECIES.length()) {
+            ByteVector bytes = ByteVector.fromArray(SPECIES, array,
+                                                    offset + i);
+            ByteVector lowNibbles = bytes.and((byte) 0x0F);
+            ByteVector highNibbles = bytes.lanewise(VectorOperators.LSHR, 4)
+                                          .and((byte) 0x0F);
+            ByteVector classes = lowNibbles.selectFrom(lowTable)
+                .and(highNibbles.selectFrom(highTable));
+            bits |= classes.compare(VectorOperators.NE, 0).toLong() << i;
+        }
+        return bits;
+    }
+}
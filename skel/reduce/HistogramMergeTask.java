@@ -0,0 +1,59 @@
+package reduce;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import util.LengthHistogram;
+
+
+/**
+ * Merges a range of the dictionaries of a document as a tree reduction:
+ * the range is halved until it is small enough to be merged sequentially,
+ * and the two halves are merged in parallel by a fork-join pool
+ */
+public class HistogramMergeTask extends RecursiveTask<LengthHistogram> {
+    private static final long serialVersionUID = 1L;
+
+    /** under this number of dictionaries the range is merged sequentially */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    /** the task is never serialized, it only runs in the pool */
+    private final transient List<LengthHistogram> dictionaries;
+    private final int begin;
+    private final int end;
+
+    /**
+     * @param dictionaries the dictionaries of a document
+     * @param begin the first index from the range (inclusive)
+     * @param end the last index from the range (exclusive)
+     */
+    public HistogramMergeTask(List<LengthHistogram> dictionaries, int begin,
+                              int end) {
+        this.dictionaries = dictionaries;
+        this.begin = begin;
+        this.end = end;
+    }
+
+    public static boolean isWorthSplitting(int noDictionaries) {
+        return noDictionaries > 2 * SEQUENTIAL_THRESHOLD;
+    }
+
+    @Override
+    protected LengthHistogram compute() {
+        if (end - begin <= SEQUENTIAL_THRESHOLD) {
+            LengthHistogram result = new LengthHistogram();
+            for (int i = begin; i < end; i++) {
+                result.merge(dictionaries.get(i));
+            }
+            return result;
+        }
+
+        int middle = (begin + end) >>> 1;
+        var leftHalf = new HistogramMergeTask(dictionaries, begin, middle);
+        var rightHalf = new HistogramMergeTask(dictionaries, middle, end);
+        leftHalf.fork();
+        LengthHistogram result = rightHalf.compute();
+        result.merge(leftHalf.join());
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+package reduce;
+
+import java.util.function.IntToDoubleFunction;
+
+import util.LengthHistogram;
+
+
+/**
+ * Gives the weight of each word length in the rank of a document: the rank
+ * is the sum of weight(length) * apps over the lengths, divided by the
+ * number of words. The weights of the lengths under
+ * LengthHistogram.DENSE_LIMIT are computed once, into a table shared by all
+ * the reduce workers, so the rank of a document is a dot product between
+ * the table and its histogram; the longer (rare) lengths are computed when
+ * they appear.
+ */
+public final class RankFunction {
+    /** ln of the golden ratio */
+    private static final double LN_PHI = Math.log((1 + Math.sqrt(5)) / 2);
+    private static final double LN_SQRT5 = Math.log(Math.sqrt(5));
+    /** from here on, ln(fib(n)) is given by Binet's formula */
+    private static final int BINET_LIMIT = 64;
+
+    /**
+     * fib(len + 1) for each length (fib(1) = fib(2) = 1), exact while it
+     * fits a long, and Double.MAX_VALUE once it doesn't fit a double, so a
+     * weight multiplied by 0 apps is never NaN
+     */
+    private static final double[] FIB_WEIGHTS = fibonacciWeights();
+
+    /** fib(len + 1), the rank required by the homework */
+    public static final RankFunction FIBONACCI
+        = new RankFunction("fibonacci", RankFunction::fibonacci);
+    /**
+     * ln(fib(len + 1)): grows linearly with the length, so the long tokens
+     * don't take the rank out of the range of a double
+     */
+    public static final RankFunction LOG_FIBONACCI
+        = new RankFunction("log", RankFunction::logFibonacci);
+    /** the length itself: the rank is the average length of the words */
+    public static final RankFunction LENGTH
+        = new RankFunction("length", length -> length);
+
+    private final String name;
+    /** weights[len] for each length under LengthHistogram.DENSE_LIMIT */
+    private final double[] weights;
+    /** the weight of any length, used for the lengths over the table */
+    private final IntToDoubleFunction weight;
+
+    private RankFunction(String name, IntToDoubleFunction weight) {
+        this.name = name;
+        this.weight = weight;
+        weights = new double[LengthHistogram.DENSE_LIMIT];
+        for (int len = 1; len < weights.length; len++) {
+            weights[len] = weight.applyAsDouble(len);
+        }
+    }
+
+    /**
+     * fib(len + 1) up to the given length, and fib(maxLength + 1) for the
+     * longer words
+     * @param maxLength the length from which the weight stays the same
+     * @return the rank function
+     */
+    public static RankFunction saturating(int maxLength) {
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("Not a length: " + maxLength);
+        }
+        return new RankFunction("saturating:" + maxLength,
+            length -> fibonacci(Math.min(length, maxLength)));
+    }
+
+    /**
+     * @param spec fibonacci, log, length or saturating[:<length>] (91 by
+     * default, the last length whose weight fits a long)
+     * @return the rank function with this name
+     * @throws IllegalArgumentException if there is no such function
+     */
+    public static RankFunction forName(String spec) {
+        switch (spec) {
+            case "fibonacci":
+                return FIBONACCI;
+            case "log":
+                return LOG_FIBONACCI;
+            case "length":
+                return LENGTH;
+            case "saturating":
+                return saturating(91);
+            default:
+                break;
+        }
+        if (spec.startsWith("saturating:")) {
+            try {
+                return saturating(Integer.parseInt(
+                    spec.substring("saturating:".length())));
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("Unknown rank function: " + spec);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param length a word length (positive)
+     * @return the weight of the words with this length
+     */
+    public double weight(int length) {
+        return length < weights.length ? weights[length]
+                                       : weight.applyAsDouble(length);
+    }
+
+    /**
+     * @param dictionary the appearances of each length in a document
+     * @return the rank of the document (NaN if it has no words)
+     */
+    public double rank(LengthHistogram dictionary) {
+        return dictionary.dot(weights, weight)
+               / (double) dictionary.getTotal();
+    }
+
+    private static double fibonacci(int length) {
+        return length < FIB_WEIGHTS.length ? FIB_WEIGHTS[length]
+                                           : Double.MAX_VALUE;
+    }
+
+    private static double logFibonacci(int length) {
+        if (length < BINET_LIMIT) {
+            return Math.log(FIB_WEIGHTS[length]);
+        }
+        // fib(n) = phi^n / sqrt(5), rounded to the nearest integer
+        return (length + 1) * LN_PHI - LN_SQRT5;
+    }
+
+    private static double[] fibonacciWeights() {
+        double[] fib = new double[LengthHistogram.DENSE_LIMIT];
+        // fib(len) and fib(len + 1), in longs while they fit
+        long fib0 = 1;
+        long fib1 = 1;
+        int len = 1;
+        while (fib1 > 0) {
+            fib[len++] = fib1;
+            long next = fib0 + fib1;
+            fib0 = fib1;
+            fib1 = next;
+        }
+
+        double prev = fib[len - 2];
+        for (; len < fib.length; len++) {
+            double next = prev + fib[len - 1];
+            prev = fib[len - 1];
+            fib[len] = Math.min(next, Double.MAX_VALUE);
+        }
+        return fib;
+    }
+}
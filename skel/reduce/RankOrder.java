@@ -0,0 +1,143 @@
+package reduce;
+
+import java.util.Arrays;
+
+
+/**
+ * Orders the results of the documents for the output: decreasing by rank
+ * (as Double.compare), then increasing by id. The ranks are turned into
+ * longs with the same order, so neither the full sort nor the selection of
+ * the first results boxes a rank or calls a comparator.
+ */
+public final class RankOrder {
+    private RankOrder() {
+    }
+
+    /**
+     * @param results the result of each document, at the index given by its
+     * id
+     * @return the ids of all the documents, in the order of the output
+     */
+    public static int[] sort(ReduceResult[] results) {
+        int n = results.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = key(results[i].getRank());
+        }
+
+        // the position of each rank among the distinct ones, which fits
+        // beside the id in a long
+        long[] distinct = keys.clone();
+        Arrays.parallelSort(distinct);
+        int noDistinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[noDistinct++] = distinct[i];
+            }
+        }
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            long position = Arrays.binarySearch(distinct, 0, noDistinct,
+                                                keys[i]);
+            packed[i] = position << 32 | results[i].getId();
+        }
+        Arrays.parallelSort(packed);
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Keeps the first results in a bounded heap, without sorting the others
+     * @param results the result of each document, at the index given by its
+     * id
+     * @param limit how many documents are selected
+     * @return the ids of the first documents of the output, in its order
+     */
+    public static int[] top(ReduceResult[] results, int limit) {
+        int n = results.length;
+        if (limit >= n) {
+            return sort(results);
+        }
+        // a heap of the selected documents, the last one in the output at
+        // its root
+        long[] heapKeys = new long[limit];
+        int[] heapIds = new int[limit];
+        int size = 0;
+        for (int i = 0; i < n && limit > 0; i++) {
+            long key = key(results[i].getRank());
+            int id = results[i].getId();
+            if (size < limit) {
+                siftUp(heapKeys, heapIds, size++, key, id);
+            } else if (before(key, id, heapKeys[0], heapIds[0])) {
+                siftDown(heapKeys, heapIds, size, key, id);
+            }
+        }
+
+        int[] order = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            order[i] = heapIds[0];
+            siftDown(heapKeys, heapIds, i, heapKeys[i], heapIds[i]);
+        }
+        return order;
+    }
+
+    /**
+     * @return a long ordered like the ranks in the output: the greatest rank
+     * (NaN first, as Double.compare) gives the smallest long
+     */
+    private static long key(double rank) {
+        long bits = Double.doubleToLongBits(rank);
+        // the negative doubles are ordered backwards by their bits
+        long ascending = bits ^ (bits >> 63 & Long.MAX_VALUE);
+        return ~ascending;
+    }
+
+    private static boolean before(long key1, int id1, long key2, int id2) {
+        return key1 < key2 || key1 == key2 && id1 < id2;
+    }
+
+    /** Adds a document at the end of the heap and moves it up */
+    private static void siftUp(long[] keys, int[] ids, int index,
+                               long key, int id) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(keys[parent], ids[parent], key, id)) {
+                break;
+            }
+            keys[index] = keys[parent];
+            ids[index] = ids[parent];
+            index = parent;
+        }
+        keys[index] = key;
+        ids[index] = id;
+    }
+
+    /** Puts a document at the root of the heap and moves it down */
+    private static void siftDown(long[] keys, int[] ids, int size,
+                                 long key, int id) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size
+                    && before(keys[child], ids[child],
+                              keys[child + 1], ids[child + 1])) {
+                child++;
+            }
+            if (!before(key, id, keys[child], ids[child])) {
+                break;
+            }
+            keys[index] = keys[child];
+            ids[index] = ids[child];
+            index = child;
+        }
+        keys[index] = key;
+        ids[index] = id;
+    }
+}
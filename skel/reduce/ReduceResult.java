@@ -2,6 +2,8 @@ package reduce;
 
 import java.util.List;
 
+import util.LengthHistogram;
+
 
 public class ReduceResult {
     private double rank;
@@ -13,6 +15,11 @@ public class ReduceResult {
      * Not written into the files
      */
     private List<String> longestWords;
+    /**
+     * Not written into the files: the appearances of each length in the
+     * whole document, kept for the cache of results
+     */
+    private LengthHistogram dictionary;
 
     public ReduceResult(double rank, String name, int id, long maxDim,
                           long maxDimApps, List<String> longestWords) {
@@ -60,4 +67,10 @@ public class ReduceResult {
     public void setLongestWords(List<String> longestWords) {
         this.longestWords = longestWords;
     }
+    public LengthHistogram getDictionary() {
+        return dictionary;
+    }
+    public void setDictionary(LengthHistogram dictionary) {
+        this.dictionary = dictionary;
+    }
 }
@@ -2,30 +2,33 @@ package reduce;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+
+import util.LengthHistogram;
+import util.LongestWords;
 
 
 public class ReduceTask {
     private String docName;
     /** [ {(length : apps)}, ] */
-    private List<Map<Integer, Integer>> appsDictionaries;
-    private List<List<String>> longestWordsLists;
+    private List<LengthHistogram> appsDictionaries;
+    /** the longest words of each part of the document */
+    private List<LongestWords> longestWordsParts;
 
     public ReduceTask(String docName) {
         this.docName = docName;
         appsDictionaries = new ArrayList<>();
-        longestWordsLists = new ArrayList<>();
+        longestWordsParts = new ArrayList<>();
     }
 
     public String getDocName() {
         return docName;
     }
 
-    public List<Map<Integer, Integer>> getAppsDictionaries() {
+    public List<LengthHistogram> getAppsDictionaries() {
         return appsDictionaries;
     }
 
-    public List<List<String>> getLongestWordsLists() {
-        return longestWordsLists;
+    public List<LongestWords> getLongestWordsParts() {
+        return longestWordsParts;
     }
 }
@@ -1,10 +1,13 @@
 package reduce;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import util.LengthHistogram;
+import util.LongestWords;
+import util.Metrics;
+import util.WorkerStats;
 
 
 public class ReduceWorker extends Thread {
@@ -19,17 +22,30 @@ public class ReduceWorker extends Thread {
      * [{length : apps}] -> represents the results after combine step,
      * but only for the documents designated to a certain instance
      */
-    private List<Map<Integer, Integer>> docsDictionaries;
+    private List<LengthHistogram> docsDictionaries;
     /**
-     * the lists with the longest words per document, for each document
-     * inspected by one instance
+     * the longest words per document, for each document inspected by one
+     * instance
      */
-    private List<List<String>> longestWordsLists;
-    /** the results after reduce step (each instance fills a subinterval) */
+    private List<LongestWords> docsLongestWords;
+    /** how many distinct longest words are kept for a document */
+    private int wordsLimit = LongestWords.DEFAULT_LIMIT;
+    /** the results after reduce step (each instance fills its documents) */
     private ReduceResult[] documentsResults;
-
-    /** list with the sequence of Fibonacci */
-    private List<Long> fibonacci;
+    /**
+     * the ids of the documents reduced by this instance; null if the
+     * instance takes the subinterval of documents given by its id
+     */
+    private int[] assignedDocs;
+    /**
+     * the pool where the dictionaries of a big document are merged in
+     * parallel; null if each document is merged only by its worker
+     */
+    private ForkJoinPool mergePool;
+    /** the counters of this worker; null if the metrics are not collected */
+    private WorkerStats stats;
+    /** gives the weight of each word length in the rank of a document */
+    private RankFunction rankFunction = RankFunction.FIBONACCI;
 
     public ReduceWorker(int id, int p, ReduceTask[] documentsDictionaries,
                         ReduceResult[] documentsResults) {
@@ -37,109 +53,143 @@ public class ReduceWorker extends Thread {
         this.p = p;
         this.documentsTasks = documentsDictionaries;
         this.documentsResults = documentsResults;
+    }
 
-        fibonacci = new ArrayList<>();
-        fibonacci.add(0L);
-        fibonacci.add(1L);
+    /**
+     * @param wordsLimit how many distinct longest words are kept for a
+     * document, LongestWords.EXACT for all of them
+     */
+    public void setWordsLimit(int wordsLimit) {
+        this.wordsLimit = wordsLimit;
     }
 
     /**
-     * Returns the idx'th termen of the fibonacci sequence
-     * @param idx index in the sequence
-     * @return fib[idx] value
+     * Replaces the subinterval of documents given by the id with an explicit
+     * list of documents, chosen for balancing the work between the workers
+     * @param assignedDocs the ids of the documents reduced by this instance
      */
-    private long getFib(int idx) {
-        if ((long) idx >= fibonacci.size()) {
-            for (int i = fibonacci.size(); i <= idx; i++) {
-                var fib0 = fibonacci.get(i - 2);
-                var fib1 = fibonacci.get(i - 1);
-                fibonacci.add(fib0 + fib1);
-            }
-        }
-        return fibonacci.get(idx);
+    public void setAssignedDocs(int[] assignedDocs) {
+        this.assignedDocs = assignedDocs;
     }
 
-    @Override
-    public void run() {
-        combine();
-        reduce();
+    /**
+     * The documents with many dictionaries are merged by a tree reduction in
+     * this pool, so that a single giant document is merged on all the cores
+     */
+    public void setMergePool(ForkJoinPool mergePool) {
+        this.mergePool = mergePool;
     }
 
-    private void combine() {
-        int noDocs = documentsTasks.length;
-        docsDictionaries = new ArrayList<>();
-        longestWordsLists = new ArrayList<>();
+    public void setStats(WorkerStats stats) {
+        this.stats = stats;
+    }
+
+    public void setRankFunction(RankFunction rankFunction) {
+        this.rankFunction = rankFunction;
+    }
 
+    /**
+     * @return the ids of the documents reduced by this instance
+     */
+    private int[] getDocs() {
+        if (assignedDocs != null) {
+            return assignedDocs;
+        }
+
+        int noDocs = documentsTasks.length;
         int len = (int) Math.ceil((double) noDocs / (double) p);
         int begin = id * len;
         int end = Math.min(begin + len - 1, noDocs - 1);
 
+        int[] docs = new int[Math.max(0, end - begin + 1)];
         for (int i = begin; i <= end; i++) {
+            docs[i - begin] = i;
+        }
+        return docs;
+    }
+
+    /**
+     * Calculates the final result of a document from its combined data
+     * @param docId the position of the document in the input file
+     * @param docName the name of the document
+     * @param dictionary the appearances of each length in the whole document
+     * @param longestWords the longest words from the document
+     * @param rankFunction gives the weight of each word length
+     * @return the result of the reduce step for the document
+     */
+    public static ReduceResult reduceDocument(int docId, String docName,
+                                              LengthHistogram dictionary,
+                                              List<String> longestWords,
+                                              RankFunction rankFunction) {
+        int maxLength = dictionary.getMaxLength();
+        var result = new ReduceResult(rankFunction.rank(dictionary), docName,
+                                      docId, maxLength,
+                                      dictionary.get(maxLength), longestWords);
+        result.setDictionary(dictionary);
+        return result;
+    }
+
+    @Override
+    public void run() {
+        long startNanos = 0;
+        long startAllocated = 0;
+        if (stats != null) {
+            startNanos = System.nanoTime();
+            startAllocated = Metrics.currentThreadAllocatedBytes();
+        }
+
+        int[] docs = getDocs();
+        combine(docs);
+        reduce(docs);
+
+        if (stats != null) {
+            for (int i = 0; i < docs.length; i++) {
+                stats.addTask();
+            }
+            stats.addBusyNanos(System.nanoTime() - startNanos);
+            stats.addAllocatedBytes(Metrics.currentThreadAllocatedBytes()
+                                    - startAllocated);
+        }
+    }
+
+    private void combine(int[] docs) {
+        docsDictionaries = new ArrayList<>();
+        docsLongestWords = new ArrayList<>();
+
+        for (int i : docs) {
             ReduceTask docData = documentsTasks[i];
-            Map<Integer, Integer> combineObject = new HashMap<>();
-
-            for (var dictionary : docData.getAppsDictionaries()) {
-                // take each dictionary assigned to this doc
-                for (var lenAppPair : dictionary.entrySet()) {
-                    // take each pair from a certain dictionary
-                    int certainLen = lenAppPair.getKey();
-                    int certainNoApps = lenAppPair.getValue();
-
-                    if (!combineObject.containsKey(certainLen)) {
-                        combineObject.put(certainLen, certainNoApps);
-                    } else {
-                        int oldNoApps = combineObject.get(certainLen);
-                        combineObject.replace(certainLen, oldNoApps,
-                                              oldNoApps + certainNoApps);
-                    }
+            var dictionaries = docData.getAppsDictionaries();
+            int noDictionaries = dictionaries.size();
+            LengthHistogram combineObject;
+
+            if (mergePool != null
+                    && HistogramMergeTask.isWorthSplitting(noDictionaries)) {
+                combineObject = mergePool.invoke(
+                    new HistogramMergeTask(dictionaries, 0, noDictionaries));
+            } else {
+                combineObject = new LengthHistogram();
+                for (var dictionary : dictionaries) {
+                    // take each dictionary assigned to this doc
+                    combineObject.merge(dictionary);
                 }
             }
             docsDictionaries.add(combineObject);
 
-            int maxLength = 0;
-            List<String> longestWords = new LinkedList<>();
-            for (var stringList : docData.getLongestWordsLists()) {
-                for (String s : stringList) {
-                    int strLen = s.length();
-                    if (strLen > maxLength) {
-                        longestWords.clear();
-                        longestWords.add(s);
-                    } else if (strLen == maxLength) {
-                        ((LinkedList<String>) longestWords).addFirst(s);
-                    }
-                }
+            var longestWords = new LongestWords(wordsLimit);
+            for (var part : docData.getLongestWordsParts()) {
+                longestWords.merge(part);
             }
-            longestWordsLists.add(longestWords);
+            docsLongestWords.add(longestWords);
         }
     }
 
-    private void reduce() {
-        int noDocs = documentsTasks.length;
-        int len = (int) Math.ceil((double) noDocs / (double) p);
-        int begin = id * len;
-        int end = Math.min(begin + len - 1, noDocs - 1);
-
-        for (int i = begin; i <= end; i++) {
-            double docRank = 0.0;
-            double totalWords = 0.0;
-            int maxLength = 0;
-
-            for (var entry : docsDictionaries.get(i - begin).entrySet()) {
-                var wordLen = entry.getKey();
-                var apps = entry.getValue();
-                docRank += getFib(wordLen + 1) * apps;
-                totalWords += apps;
-                if (wordLen > maxLength)
-                    maxLength = wordLen;
-            }
-            docRank /= totalWords;
-
-            var result = new ReduceResult(docRank,
-                                          documentsTasks[i].getDocName(),
-                                          i, maxLength,
-                                          docsDictionaries.get(i - begin)
-                                         .get(maxLength),
-                                          longestWordsLists.get(i - begin));
+    private void reduce(int[] docs) {
+        for (int k = 0; k < docs.length; k++) {
+            int i = docs[k];
+            var result = reduceDocument(i, documentsTasks[i].getDocName(),
+                                        docsDictionaries.get(k),
+                                        docsLongestWords.get(k).toList(),
+                                        rankFunction);
             documentsResults[i] = result;
         }
     }
@@ -0,0 +1,114 @@
+package reduce;
+
+import map.MapResult;
+import map.MapResultSink;
+import map.MapTask;
+import util.LongestWords;
+
+
+/**
+ * Reduces the documents while the map step is still running: the result of
+ * each fragment is merged right away into the partial result of its
+ * document, and the document is finalized by the map worker which delivers
+ * its last fragment (so no map result is kept after it was merged)
+ */
+public class StreamingReducer implements MapResultSink {
+    /** the results for all the documents, filled as they are completed */
+    private final ReduceResult[] documentsResults;
+    private final String[] docNames;
+    /** the partial data of each document still being mapped */
+    private final DocumentAccumulator[] accumulators;
+    /** gives the weight of each word length in the rank of a document */
+    private RankFunction rankFunction = RankFunction.FIBONACCI;
+
+    /**
+     * @param docNames the names of the documents, by id
+     * @param docFragments the number of map tasks of each document
+     * @param documentsResults the array filled with the final results
+     */
+    public StreamingReducer(String[] docNames, int[] docFragments,
+                            ReduceResult[] documentsResults) {
+        this(docNames, docFragments, documentsResults,
+             LongestWords.DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param docNames the names of the documents, by id
+     * @param docFragments the number of map tasks of each document
+     * @param documentsResults the array filled with the final results
+     * @param wordsLimit how many distinct longest words are kept for a
+     * document, LongestWords.EXACT for all of them
+     */
+    public StreamingReducer(String[] docNames, int[] docFragments,
+                            ReduceResult[] documentsResults, int wordsLimit) {
+        this.docNames = docNames;
+        this.documentsResults = documentsResults;
+        accumulators = new DocumentAccumulator[docNames.length];
+
+        for (int i = 0; i < docNames.length; i++) {
+            accumulators[i] = new DocumentAccumulator(docFragments[i],
+                                                     wordsLimit);
+            if (docFragments[i] == 0) {
+                // an empty document won't receive any fragment
+                finish(i, accumulators[i]);
+            }
+        }
+    }
+
+    /**
+     * Must be called before any result is accepted (the empty documents are
+     * finalized by the constructor, but their rank doesn't depend on it)
+     */
+    public void setRankFunction(RankFunction rankFunction) {
+        this.rankFunction = rankFunction;
+    }
+
+    @Override
+    public void accept(int taskIndex, MapTask task, MapResult result) {
+        accept(task.getDocId(), result);
+    }
+
+    /**
+     * Merges a result into its document, which is finalized if this was the
+     * last fragment expected
+     * @param docId the id of the document
+     * @param result a result covering one or more fragments of the document
+     */
+    public void accept(int docId, MapResult result) {
+        DocumentAccumulator accumulator = accumulators[docId];
+
+        synchronized (accumulator) {
+            accumulator.add(result);
+            accumulator.remainingFragments -= result.getFragments();
+            if (accumulator.remainingFragments == 0) {
+                finish(docId, accumulator);
+            }
+        }
+    }
+
+    private void finish(int docId, DocumentAccumulator accumulator) {
+        MapResult data = accumulator.data;
+        documentsResults[docId]
+            = ReduceWorker.reduceDocument(docId, docNames[docId],
+                                          data.getDictionary(),
+                                          data.getLongestWords().toList(),
+                                          rankFunction);
+        // the partial data is no longer needed
+        accumulators[docId] = null;
+    }
+
+    /** The data merged so far for a document */
+    private static class DocumentAccumulator {
+        private int remainingFragments;
+        private final MapResult data;
+
+        DocumentAccumulator(int fragments, int wordsLimit) {
+            remainingFragments = fragments;
+            data = new MapResult(null, wordsLimit);
+        }
+
+        void add(MapResult result) {
+            data.merge(result);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import map.MapResult;
+import util.LengthHistogram;
+import util.Utf8Separators;
+
+
+/**
+ * The state kept between runs for documents which only grow at the end
+ * (logs, transcripts): how many bytes were processed, where the word ending
+ * them starts and the data of the document up to there, so that a new run
+ * maps only the appended tail. The tail is mapped from the start of the old
+ * last word, whose appearance is taken out of the stored data: the word
+ * (and a character cut by the old end) is read again whole, so the tail
+ * never has to be fixed up as the edges of the fragments are.
+ */
+public class IncrementalState {
+    private static final String STATE_SUFFIX = ".state";
+    /** written first, so the states saved in an older format are dropped */
+    private static final int STATE_FORMAT = 2;
+    /** how many bytes before the old end are checked for modifications */
+    private static final int CHECKED_BYTES = 64;
+    /** the bytes read at once while scanning the word at the old end */
+    private static final int SCAN_CHUNK = 4096;
+
+    private final File folder;
+    private final Utf8Separators separators;
+    /** the bytes being scanned, with the chars around them */
+    private final byte[] chunk = new byte[SCAN_CHUNK];
+    private final ByteBuffer chunkData = ByteBuffer.wrap(chunk);
+
+    /**
+     * @param folder where the states of the documents are kept
+     * @param separators the separators used by the map workers
+     */
+    public IncrementalState(String folder, Utf8Separators separators) {
+        this.folder = new File(folder);
+        this.separators = separators;
+        this.folder.mkdirs();
+    }
+
+    /** What is known about a document from the previous run */
+    public static class DocumentState {
+        /** how many bytes from the beginning of the document were processed */
+        private long processedLength;
+        /**
+         * the offset of the word ending the processed part (after the last
+         * separator, processedLength if none): the bytes of the word are
+         * known, while its characters may continue in the tail
+         */
+        private long lastWordStart;
+        /**
+         * the length in characters of that word (0 if it has only
+         * continuation bytes, or if there is none)
+         */
+        private long lastWordLength;
+        /** the data of the document before lastWordStart */
+        private MapResult result;
+
+        /**
+         * @return the offset from which the document is mapped again
+         */
+        public long getMapStart() {
+            return lastWordStart;
+        }
+
+        public MapResult getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * Loads the state of a document and takes its last word out, since the
+     * word is mapped again with the tail
+     * @param docName the path of the document
+     * @param docLength the current length of the document
+     * @return the state, or null if the document has to be processed from
+     * the beginning (it is new, or it wasn't only appended to)
+     */
+    public DocumentState load(String docName, long docLength) {
+        File stateFile = stateFile(docName);
+        if (!stateFile.isFile()) {
+            return null;
+        }
+
+        DocumentState state = new DocumentState();
+        long checksum;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != STATE_FORMAT
+                    || !in.readUTF().equals(absolutePath(docName))) {
+                return null;
+            }
+            state.processedLength = in.readLong();
+            checksum = in.readLong();
+            state.lastWordStart = in.readLong();
+            state.lastWordLength = in.readLong();
+            state.result = ResultIO.read(in, docName);
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (docLength < state.processedLength) {
+            return null;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(docName, "r")) {
+            if (checksum(raf, state.processedLength) != checksum) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (state.lastWordLength > 0) {
+            state.result.getDictionary().decrement(
+                (int) Math.min(state.lastWordLength, Integer.MAX_VALUE));
+        }
+        return state;
+    }
+
+    /**
+     * Saves the state of a document after it was processed up to its end
+     * @param docName the path of the document
+     * @param docLength the length processed
+     * @param previous the state loaded at the beginning of the run, or null
+     * @param dictionary the appearances of each length in the document
+     * @param longestWords the longest words from the document
+     */
+    public void save(String docName, long docLength, DocumentState previous,
+                     LengthHistogram dictionary, List<String> longestWords) {
+        File stateFile = stateFile(docName);
+        File temporary = new File(folder, stateFile.getName() + ".tmp");
+
+        try (RandomAccessFile raf = new RandomAccessFile(docName, "r");
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            // this run mapped the document from here, which is not inside a
+            // word
+            long mapStart = previous == null ? 0 : previous.lastWordStart;
+
+            // the last word, searched only back to mapStart, in chunks read
+            // backwards
+            long start = docLength;
+            long lastWordLength = 0;
+            boolean found = false;
+            while (!found && start > mapStart) {
+                long from = Math.max(0, start - chunk.length);
+                int k = (int) (start - from);
+                raf.seek(from);
+                raf.readFully(chunk, 0, k);
+                // the char before an index is decoded only if it can't
+                // start before the chunk
+                int low = (int) Math.max(from == 0
+                                         ? 0 : Utf8Separators.MAX_CHAR_BYTES,
+                                         mapStart - from);
+                while (k > low
+                        && separators.lengthBefore(chunkData, 0, k) == 0) {
+                    k--;
+                    if (!Utf8Separators.isContinuation(chunk[k] & 0xFF)) {
+                        lastWordLength++;
+                    }
+                }
+                start = from + k;
+                found = k > low;
+            }
+
+            out.writeInt(STATE_FORMAT);
+            out.writeUTF(absolutePath(docName));
+            out.writeLong(docLength);
+            out.writeLong(checksum(raf, docLength));
+            out.writeLong(start);
+            out.writeLong(lastWordLength);
+            ResultIO.write(out, dictionary, longestWords);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return;
+        }
+
+        try {
+            Files.move(temporary.toPath(), stateFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+        }
+    }
+
+    /**
+     * @return the checksum of the last bytes before the given offset, used
+     * for detecting that the processed part was modified
+     */
+    private static long checksum(RandomAccessFile raf, long end)
+            throws IOException {
+        int length = (int) Math.min(end, CHECKED_BYTES);
+        byte[] bytes = new byte[length];
+        raf.seek(end - length);
+        raf.readFully(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static String absolutePath(String docName) {
+        return new File(docName).getAbsolutePath();
+    }
+
+    private File stateFile(String docName) {
+        return new File(folder,
+                        ResultIO.fileName(absolutePath(docName)) + STATE_SUFFIX);
+    }
+}
@@ -0,0 +1,188 @@
+package store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import map.MapResult;
+import util.LengthHistogram;
+
+
+/**
+ * On-disk cache with the combined result (the histogram of lengths and the
+ * longest words) of each document processed before; an entry is identified
+ * by the path, the size and the modification time of the document and by
+ * the fragment dimension (unless it is chosen by the run from the corpus),
+ * so a changed document is simply not found. The
+ * total size of the entries is bounded, the least recently used ones being
+ * evicted (the modification time of an entry is its last use).
+ */
+public class ResultCache {
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    private final File folder;
+    private final long maxBytes;
+    /** the non-ASCII separators the results were computed with */
+    private String separators = "";
+    /**
+     * whether the fragment dimension is chosen from the corpus, so it is
+     * left out of the keys
+     */
+    private boolean autoFragments;
+
+    /**
+     * @param folder where the entries are kept (created if missing)
+     * @param maxBytes the maximum total size of the entries
+     */
+    public ResultCache(String folder, long maxBytes) {
+        this.folder = new File(folder);
+        this.maxBytes = maxBytes;
+        this.folder.mkdirs();
+    }
+
+    /**
+     * The results computed with other separators are not found
+     * @param separators the non-ASCII separators ("" for none)
+     */
+    public void setSeparators(String separators) {
+        this.separators = separators;
+    }
+
+    /**
+     * The dimension chosen from the corpus changes with the other documents
+     * and with the number of workers, while the result of a document doesn't
+     * depend on it: such results are all kept under the same key
+     * @param autoFragments whether the fragment dimension is chosen from the
+     * corpus
+     */
+    public void setAutoFragments(boolean autoFragments) {
+        this.autoFragments = autoFragments;
+    }
+
+    /**
+     * @param docName the path of the document
+     * @param D the dimension of the fragments
+     * @return the cached result of the document (covering one fragment), or
+     * null if the document is not cached or has changed meanwhile
+     */
+    public MapResult lookup(String docName, int D) {
+        String key = key(docName, D);
+        if (key == null) {
+            return null;
+        }
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(entry)))) {
+            if (!in.readUTF().equals(key)) {
+                // a collision of the hashes
+                return null;
+            }
+            MapResult result = ResultIO.read(in, docName);
+
+            // mark the entry as recently used
+            entry.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (IOException e) {
+            // a damaged entry is the same as a missing one
+            entry.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Saves the result of a whole document and evicts the least recently
+     * used entries if the cache became too big
+     * @param docName the path of the document
+     * @param D the dimension of the fragments
+     * @param dictionary the appearances of each length in the document
+     * @param longestWords the longest words from the document
+     */
+    public void store(String docName, int D, LengthHistogram dictionary,
+                      List<String> longestWords) {
+        String key = key(docName, D);
+        if (key == null) {
+            return;
+        }
+        File entry = entryFile(key);
+        File temporary = new File(folder, entry.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeUTF(key);
+            ResultIO.write(out, dictionary, longestWords);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return;
+        }
+
+        try {
+            // the readers never see a half written entry
+            Files.move(temporary.toPath(), entry.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return;
+        }
+        evict();
+    }
+
+    /** Removes the least recently used entries until they fit the limit */
+    private void evict() {
+        File[] entries = folder.listFiles(
+            (dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length && total > maxBytes; i++) {
+            long length = entries[i].length();
+            if (entries[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * @return the key of the current version of the document, or null if
+     * the document can't be read
+     */
+    private String key(String docName, int D) {
+        File doc = new File(docName);
+        if (!doc.isFile()) {
+            return null;
+        }
+        String key = doc.getAbsolutePath() + '|' + doc.length() + '|'
+            + doc.lastModified() + '|' + (autoFragments ? "auto" : D);
+        return separators.isEmpty() ? key : key + '|' + separators;
+    }
+
+    private File entryFile(String key) {
+        return new File(folder, ResultIO.fileName(key) + ENTRY_SUFFIX);
+    }
+}
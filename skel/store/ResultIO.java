@@ -0,0 +1,73 @@
+package store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import map.MapResult;
+import util.LengthHistogram;
+
+
+/**
+ * Reads and writes the data of a document (the histogram of lengths and the
+ * longest words) in the files kept by this package
+ */
+final class ResultIO {
+    private ResultIO() {
+    }
+
+    /**
+     * @param key the identifier of a file
+     * @return a name for the file, derived from the hash of the key
+     */
+    static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the data of a whole document, in the WireFormat encoding
+     * preceded by its size
+     * @param out where the data is written
+     * @param dictionary the appearances of each length in the document
+     * @param longestWords the longest words from the document
+     */
+    static void write(DataOutput out, LengthHistogram dictionary,
+                      List<String> longestWords) throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(
+            WireFormat.maxEncodedSize(dictionary, longestWords));
+        WireFormat.write(encoded, 1, dictionary, longestWords);
+        out.writeInt(encoded.position());
+        out.write(encoded.array(), 0, encoded.position());
+    }
+
+    /**
+     * @param in where the data is read from
+     * @param docName the document to which the data belongs
+     * @return a result covering one fragment of the document
+     */
+    static MapResult read(DataInput in, String docName) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid size of an encoded result");
+        }
+        byte[] encoded = new byte[size];
+        in.readFully(encoded);
+        return WireFormat.read(ByteBuffer.wrap(encoded), docName);
+    }
+}
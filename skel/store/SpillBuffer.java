@@ -0,0 +1,203 @@
+package store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import map.MapResult;
+import map.MapResultSink;
+import map.MapTask;
+import util.LengthHistogram;
+
+
+/**
+ * Receives the map results and keeps them in the results array while their
+ * estimated size fits a memory budget; when the budget is exceeded, the
+ * results in memory are merged by document and written to a run file on
+ * disk, sorted by the id of the document, and their places in the array
+ * become null. The results are taken off the resident ones under the lock,
+ * but the run is written outside it, so the other map workers can deliver
+ * their results meanwhile. At the end, the runs are merged into one
+ * partial result per document, so the memory needed no longer depends on
+ * the number of fragments.
+ */
+public class SpillBuffer implements MapResultSink {
+    /** the estimated size of the objects of an empty result */
+    private static final long RESULT_OVERHEAD = 160;
+    /** the estimated size of a string, without its chars */
+    private static final long WORD_OVERHEAD = 56;
+    /**
+     * the estimated size of a length kept outside the array of a histogram
+     * (a TreeMap entry, with the boxed length and counter)
+     */
+    private static final long SPARSE_OVERHEAD = 72;
+
+    private final MapResult[] mapResults;
+    private final long budget;
+    private final int wordsLimit;
+    private final File folder;
+
+    /** the indexes of the results kept in mapResults and their documents */
+    private int[] residentTasks = new int[64];
+    private int[] residentDocs = new int[64];
+    private int noResident;
+    private long residentBytes;
+    /** the run files written so far */
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * @param mapResults the array where the results are kept in memory
+     * @param budget the maximum estimated size of the results in memory
+     * @param wordsLimit how many distinct longest words are kept for a
+     * document
+     * @param folder where the runs are written
+     */
+    public SpillBuffer(MapResult[] mapResults, long budget, int wordsLimit,
+                       File folder) {
+        this.mapResults = mapResults;
+        this.budget = budget;
+        this.wordsLimit = wordsLimit;
+        this.folder = folder;
+    }
+
+    @Override
+    public void accept(int taskIndex, MapTask task, MapResult result) {
+        long size = estimateSize(result);
+        int[] spilledTasks;
+        int[] spilledDocs;
+        synchronized (this) {
+            mapResults[taskIndex] = result;
+            if (noResident == residentTasks.length) {
+                residentTasks = Arrays.copyOf(residentTasks, 2 * noResident);
+                residentDocs = Arrays.copyOf(residentDocs, 2 * noResident);
+            }
+            residentTasks[noResident] = taskIndex;
+            residentDocs[noResident] = task.getDocId();
+            noResident++;
+
+            residentBytes += size;
+            if (residentBytes <= budget) {
+                return;
+            }
+            // the results are spilled by this worker, the next ones are
+            // counted against the budget from zero
+            spilledTasks = Arrays.copyOf(residentTasks, noResident);
+            spilledDocs = Arrays.copyOf(residentDocs, noResident);
+            noResident = 0;
+            residentBytes = 0;
+        }
+
+        try {
+            spill(spilledTasks, spilledDocs);
+        } catch (IOException e) {
+            // the results remain in memory, the budget is exceeded
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int getNoRuns() {
+        return runs.size();
+    }
+
+    /**
+     * @return the approximate number of bytes taken by a result in memory
+     */
+    static long estimateSize(MapResult result) {
+        int maxLength = result.getDictionary().getMaxLength();
+        long size = RESULT_OVERHEAD
+                    + 4L * (Math.min(maxLength, LengthHistogram.DENSE_LIMIT)
+                            + 1);
+        size += SPARSE_OVERHEAD * result.getDictionary().getSparseCount();
+        for (String word : result.getLongestWords().getWords()) {
+            size += WORD_OVERHEAD + word.length();
+        }
+        return size;
+    }
+
+    /**
+     * Writes results from memory into a new run: one record (the id of the
+     * document and its merged result, encoded with WireFormat) for each
+     * document, in the order of the ids; their places in mapResults become
+     * null only once the run is written
+     * @param tasks the indexes of the results in mapResults
+     * @param docs the documents of the results
+     */
+    private void spill(int[] tasks, int[] docs) throws IOException {
+        Map<Integer, MapResult> grouped = new TreeMap<>();
+        for (int i = 0; i < tasks.length; i++) {
+            MapResult result = mapResults[tasks[i]];
+            grouped.computeIfAbsent(docs[i],
+                docId -> new MapResult(result.getDocName(), wordsLimit))
+                   .merge(result);
+        }
+
+        File run = File.createTempFile("spill", ".run", folder);
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run)))) {
+            for (var entry : grouped.entrySet()) {
+                ByteBuffer encoded = WireFormat.encode(entry.getValue());
+                out.writeInt(entry.getKey());
+                out.writeInt(encoded.remaining());
+                out.write(encoded.array(), 0, encoded.remaining());
+            }
+        } catch (IOException e) {
+            run.delete();
+            throw e;
+        }
+        synchronized (this) {
+            runs.add(run);
+            for (int task : tasks) {
+                mapResults[task] = null;
+            }
+        }
+    }
+
+    /**
+     * Merges all the runs (and deletes them), called after the map step
+     * @param docNames the names of the documents, by id
+     * @return the merged result of each document from the runs, null for
+     * the documents without spilled results
+     */
+    public MapResult[] mergeRuns(String[] docNames) throws IOException {
+        MapResult[] merged = new MapResult[docNames.length];
+        for (File run : runs) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(run)))) {
+                while (true) {
+                    int docId;
+                    try {
+                        docId = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] encoded = new byte[in.readInt()];
+                    in.readFully(encoded);
+                    MapResult result = WireFormat.read(
+                        ByteBuffer.wrap(encoded), docNames[docId]);
+
+                    if (merged[docId] == null) {
+                        merged[docId] = new MapResult(docNames[docId],
+                                                      wordsLimit);
+                    }
+                    merged[docId].merge(result);
+                }
+            }
+            run.delete();
+        }
+        runs.clear();
+        return merged;
+    }
+}
@@ -0,0 +1,228 @@
+package store;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import map.MapResult;
+import util.LengthHistogram;
+import util.LongestWords;
+
+
+/**
+ * The compact binary encoding of a partial result (of a fragment or of a
+ * whole document), used wherever such a result leaves the memory of a
+ * worker: the cache, the incremental state and the worker processes.
+ *
+ * Layout (every integer is an unsigned LEB128 varint):
+ *   MAGIC, VERSION                  one byte each
+ *   fragments                       how many fragments the result covers
+ *   denseMax, counts[1..denseMax]   the histogram of the usual lengths
+ *   noSparse, (gap, count)*         the lengths of at least DENSE_LIMIT,
+ *                                   each as the gap from the previous one
+ *   noWords, (byteLength, UTF-8)*   the distinct longest words
+ *
+ * The readers and writers work directly on a ByteBuffer, there is no
+ * stream or intermediate object between the buffer and the result.
+ */
+public final class WireFormat {
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 2;
+    /** the maximum size of an encoded int */
+    private static final int MAX_VARINT = 5;
+    /** the maximum number of UTF-8 bytes of a char */
+    private static final int MAX_CHAR_BYTES = 3;
+
+    private WireFormat() {
+    }
+
+    /**
+     * @return an upper bound for the size of the encoded result
+     */
+    public static int maxEncodedSize(LengthHistogram dictionary,
+                                     Collection<String> longestWords) {
+        long size = 2 + MAX_VARINT * (4L + denseMax(dictionary));
+        int first = dictionary.nextLength(LengthHistogram.DENSE_LIMIT - 1);
+        for (int len = first; len != 0; len = dictionary.nextLength(len)) {
+            size += 2 * MAX_VARINT;
+        }
+        for (String word : longestWords) {
+            size += MAX_VARINT + (long) MAX_CHAR_BYTES * word.length();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encodes a result into a new buffer, ready to be read
+     * @param result the result to be encoded
+     * @return the buffer with the encoded result, flipped
+     */
+    public static ByteBuffer encode(MapResult result) {
+        Set<String> words = result.getLongestWords().getWords();
+        ByteBuffer out = ByteBuffer.allocate(
+            maxEncodedSize(result.getDictionary(), words));
+        write(out, result.getFragments(), result.getDictionary(), words);
+        return out.flip();
+    }
+
+    /**
+     * Encodes a result at the position of the buffer
+     * @param out the buffer, with at least maxEncodedSize bytes remaining
+     * @param fragments how many fragments the result covers
+     * @param dictionary the appearances of each length
+     * @param longestWords the longest words, duplicates are written once
+     */
+    public static void write(ByteBuffer out, int fragments,
+                             LengthHistogram dictionary,
+                             Collection<String> longestWords) {
+        out.put(MAGIC);
+        out.put(VERSION);
+        putVarint(out, fragments);
+
+        int denseMax = denseMax(dictionary);
+        putVarint(out, denseMax);
+        for (int len = 1; len <= denseMax; len++) {
+            putVarint(out, dictionary.get(len));
+        }
+
+        int noSparse = 0;
+        int first = dictionary.nextLength(LengthHistogram.DENSE_LIMIT - 1);
+        for (int len = first; len != 0; len = dictionary.nextLength(len)) {
+            noSparse++;
+        }
+        putVarint(out, noSparse);
+        int previous = 0;
+        for (int len = first; len != 0; len = dictionary.nextLength(len)) {
+            putVarint(out, len - previous);
+            putVarint(out, dictionary.get(len));
+            previous = len;
+        }
+
+        Collection<String> words = longestWords instanceof Set
+            ? longestWords : new LinkedHashSet<>(longestWords);
+        putVarint(out, words.size());
+        for (String word : words) {
+            putString(out, word);
+        }
+    }
+
+    /**
+     * Decodes a result from the position of the buffer, which is moved after
+     * the encoded result
+     * @param in the buffer with the encoded result
+     * @param docName the document to which the result belongs
+     * @return the result, with all the words which were encoded
+     * @throws IOException if the data is not a valid encoded result
+     */
+    public static MapResult read(ByteBuffer in, String docName)
+            throws IOException {
+        try {
+            if (in.get() != MAGIC || in.get() != VERSION) {
+                throw new IOException("Not an encoded result");
+            }
+            // the words were already bounded when they were written
+            MapResult result = new MapResult(docName, LongestWords.EXACT);
+            int fragments = getVarint(in);
+            for (int i = 0; i < fragments; i++) {
+                result.addFragment();
+            }
+
+            LengthHistogram dictionary = result.getDictionary();
+            int denseMax = getVarint(in);
+            for (int len = 1; len <= denseMax; len++) {
+                int apps = getVarint(in);
+                if (apps != 0) {
+                    dictionary.add(len, apps);
+                }
+            }
+            int noSparse = getVarint(in);
+            int len = 0;
+            for (int i = 0; i < noSparse; i++) {
+                len += getVarint(in);
+                dictionary.add(len, getVarint(in));
+            }
+
+            int noWords = getVarint(in);
+            for (int i = 0; i < noWords; i++) {
+                result.getLongestWords().offer(getString(in));
+            }
+            return result;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated encoded result", e);
+        }
+    }
+
+    /**
+     * @return the greatest length under DENSE_LIMIT which appears (0 if
+     * there is none)
+     */
+    private static int denseMax(LengthHistogram dictionary) {
+        int len = Math.min(dictionary.getMaxLength(),
+                           LengthHistogram.DENSE_LIMIT - 1);
+        while (len > 0 && dictionary.get(len) == 0) {
+            len--;
+        }
+        return len;
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void putString(ByteBuffer out, String word) {
+        int length = word.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = word.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            // the usual case: each char is one byte, no array is needed
+            putVarint(out, length);
+            for (int i = 0; i < length; i++) {
+                out.put((byte) word.charAt(i));
+            }
+        } else {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            putVarint(out, bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        int length = getVarint(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String word;
+        if (in.hasArray()) {
+            word = new String(in.array(), in.arrayOffset() + in.position(),
+                              length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(in.position(), bytes);
+            word = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return word;
+    }
+}
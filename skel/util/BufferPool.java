@@ -0,0 +1,47 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+
+/**
+ * Keeps the data buffers of the map workers after their jobs, so the next
+ * jobs reuse them instead of allocating (and zeroing) new ones
+ */
+public class BufferPool {
+    private final int maxBuffers;
+    private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+
+    /**
+     * @param maxBuffers how many free buffers are kept at most
+     */
+    public BufferPool(int maxBuffers) {
+        this.maxBuffers = maxBuffers;
+    }
+
+    /**
+     * @param size the number of bytes needed
+     * @return a free buffer of at least the given size, or a new one if
+     * there is none
+     */
+    public synchronized byte[] take(int size) {
+        for (Iterator<byte[]> it = free.iterator(); it.hasNext(); ) {
+            byte[] buffer = it.next();
+            if (buffer.length >= size) {
+                it.remove();
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Makes a buffer available for the next take() calls; it is dropped if
+     * the pool is full
+     */
+    public synchronized void give(byte[] buffer) {
+        if (free.size() < maxBuffers) {
+            free.push(buffer);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package util;
+
+import java.util.List;
+
+
+/**
+ * Runs the units of work of a step (the map or the reduce workers) and
+ * waits for all of them to finish
+ */
+public interface ExecutionBackend extends AutoCloseable {
+    /**
+     * Decides in how many units a step is split
+     * @param p the number of workers requested
+     * @param noTasks the number of tasks of the step
+     * @return the number of units, at least 1
+     */
+    int units(int p, int noTasks);
+
+    /**
+     * Runs all the units and returns after the last one has finished
+     * @param units the units of work
+     */
+    void runAll(List<? extends Runnable> units);
+
+    /** Releases the threads of the backend */
+    @Override
+    void close();
+
+    /**
+     * @param name platform, forkjoin or virtual
+     * @param p the number of workers requested
+     * @return the backend with the given name
+     */
+    static ExecutionBackend forName(String name, int p) {
+        switch (name) {
+            case "platform":
+                return new PlatformThreadBackend();
+            case "forkjoin":
+                return new ForkJoinBackend(p);
+            case "virtual":
+                return new VirtualThreadBackend();
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + name);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * A fixed set of threads shared by several jobs running at the same time:
+ * the steps waiting for threads are served in turns, one unit from each of
+ * them, so a job with many units doesn't hold all the threads while the
+ * others wait
+ */
+public class FairShareBackend implements ExecutionBackend {
+    /** how many units are created for each worker requested */
+    private static final int UNITS_PER_THREAD = 4;
+
+    /** the units of a step, run by the threads of the backend */
+    private static final class Batch {
+        private final List<? extends Runnable> units;
+        private int next;
+        private final CountDownLatch finished;
+        private volatile Throwable failure;
+
+        Batch(List<? extends Runnable> units) {
+            this.units = units;
+            finished = new CountDownLatch(units.size());
+        }
+    }
+
+    private final Thread[] threads;
+    /** the steps with units not started yet, in the order they are served */
+    private final ArrayDeque<Batch> ready = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * @param noThreads the number of threads shared by the jobs
+     */
+    public FairShareBackend(int noThreads) {
+        threads = new Thread[noThreads];
+        for (int i = 0; i < noThreads; i++) {
+            threads[i] = new Thread(this::serve, "fair-share-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    @Override
+    public int units(int p, int noTasks) {
+        return Math.max(1, Math.min(noTasks, p * UNITS_PER_THREAD));
+    }
+
+    @Override
+    public void runAll(List<? extends Runnable> units) {
+        if (units.isEmpty()) {
+            return;
+        }
+        Batch batch = new Batch(units);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The backend is closed");
+            }
+            ready.add(batch);
+            notifyAll();
+        }
+
+        // the units use the data of the step, which must not be left before
+        // all of them have finished
+        boolean interrupted = false;
+        while (true) {
+            try {
+                batch.finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable failure = batch.failure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /** Lets the threads finish the units already submitted, then stop */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /** The loop of each thread: one unit of the next step in turn */
+    private void serve() {
+        while (true) {
+            Batch batch;
+            Runnable unit;
+            synchronized (this) {
+                while (ready.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = ready.poll();
+                if (batch == null) {
+                    return;
+                }
+                unit = batch.units.get(batch.next++);
+                if (batch.next < batch.units.size()) {
+                    // the step goes behind the others waiting for threads
+                    ready.add(batch);
+                }
+            }
+
+            try {
+                unit.run();
+            } catch (Throwable t) {
+                batch.failure = t;
+            } finally {
+                batch.finished.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * A fork-join pool with p threads which runs more units than threads, so
+ * the idle threads steal the units left in the queues of the busy ones
+ */
+public class ForkJoinBackend implements ExecutionBackend {
+    /** how many units are created for each thread of the pool */
+    private static final int UNITS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    public ForkJoinBackend(int p) {
+        pool = new ForkJoinPool(p);
+    }
+
+    @Override
+    public int units(int p, int noTasks) {
+        return Math.max(1, Math.min(noTasks, p * UNITS_PER_THREAD));
+    }
+
+    @Override
+    public void runAll(List<? extends Runnable> units) {
+        List<ForkJoinTask<?>> submitted = new ArrayList<>();
+        for (Runnable unit : units) {
+            submitted.add(pool.submit(unit));
+        }
+        for (ForkJoinTask<?> task : submitted) {
+            task.join();
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,486 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * The members of a gzip document: a gzip file may be a sequence of members,
+ * each one compressed independently (as written by pigz, bgzip or by
+ * concatenating .gz files), so the members can be decompressed in parallel
+ * by the map workers. A deflate stream can't be entered in the middle, so a
+ * member is the smallest part of a document which can be decompressed on
+ * its own, and a document with a single member is decompressed by a single
+ * worker.
+ *
+ * Finding the members takes a full decompression of the document, so the
+ * index is kept in a file next to it (<document>.gzidx) and built again
+ * only when the size or the modification time of the document changes.
+ */
+public class GzipIndex {
+    public static final String SUFFIX = ".gz";
+    public static final String INDEX_SUFFIX = ".gzidx";
+    /** the most bytes kept from the end of a member */
+    public static final int TAIL_BYTES = 4;
+
+    private static final int MAGIC = 0x475a4958;
+    private static final int VERSION = 1;
+    private static final int CHUNK = 1 << 16;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /** where the deflate data of each member starts in the file */
+    private long[] dataOffsets;
+    /** the number of bytes of deflate data of each member */
+    private long[] dataLengths;
+    /**
+     * the offset of each member in the decompressed document, followed by
+     * the length of the document
+     */
+    private long[] offsets;
+    /** the last bytes of each member (at most TAIL_BYTES of them) */
+    private byte[][] tails;
+    private int noMembers;
+
+    private GzipIndex() {
+        dataOffsets = new long[16];
+        dataLengths = new long[16];
+        offsets = new long[17];
+        tails = new byte[16][];
+    }
+
+    /**
+     * @return whether the document is read as a gzip file
+     */
+    public static boolean isCompressed(String docName) {
+        return docName.endsWith(SUFFIX);
+    }
+
+    /**
+     * Loads the index of a document from its file, or builds it (and saves
+     * it for the next runs) if there is no valid index file
+     * @param docName the path of the gzip document
+     * @return the members of the document
+     * @throws IOException if the document can't be read or is not valid
+     */
+    public static GzipIndex open(String docName) throws IOException {
+        File doc = new File(docName);
+        File indexFile = new File(docName + INDEX_SUFFIX);
+        GzipIndex index = load(indexFile, doc);
+        if (index == null) {
+            index = build(doc);
+            index.save(indexFile, doc);
+        }
+        return index;
+    }
+
+    public int getMemberCount() {
+        return noMembers;
+    }
+
+    /** @return the length of the decompressed document */
+    public long getLength() {
+        return offsets[noMembers];
+    }
+
+    /** @return the offset of a member in the decompressed document */
+    public long getOffset(int member) {
+        return offsets[member];
+    }
+
+    /** @return the number of bytes of a decompressed member */
+    public long getSize(int member) {
+        return offsets[member + 1] - offsets[member];
+    }
+
+    /** @return the last bytes of a decompressed member */
+    public byte[] getTail(int member) {
+        return tails[member];
+    }
+
+    /**
+     * @param offset an offset in the decompressed document
+     * @return the member which starts at the offset, or -1 if none does
+     */
+    public int memberAt(long offset) {
+        int member = Arrays.binarySearch(offsets, 0, noMembers, offset);
+        if (member < 0) {
+            return -1;
+        }
+        // the empty members start at the same offset as the next one
+        while (member > 0 && offsets[member - 1] == offset) {
+            member--;
+        }
+        return member;
+    }
+
+    /**
+     * Decompresses the members of a document through a fixed input buffer,
+     * so a member of any size is read in pieces, in the order of its bytes;
+     * the inflater and the buffer are reused from one member to another
+     */
+    public static class Reader {
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] compressed = new byte[CHUNK];
+        private RandomAccessFile file;
+        private int member;
+        /** where the next compressed bytes of the member are read from */
+        private long inputOffset;
+        /** the compressed bytes of the member not given to the inflater */
+        private long inputLeft;
+        /** the decompressed bytes of the member not produced yet */
+        private long outputLeft;
+
+        /**
+         * Starts the decompression of a member
+         * @param index the members of the document
+         * @param member the member decompressed
+         * @param file the gzip document
+         */
+        public void open(GzipIndex index, int member, RandomAccessFile file) {
+            this.file = file;
+            this.member = member;
+            inflater.reset();
+            inputOffset = index.dataOffsets[member];
+            // the inflater may need a byte after the deflate data, which is
+            // always there (the trailer of the member)
+            inputLeft = index.dataLengths[member] + 1;
+            outputLeft = index.getSize(member);
+        }
+
+        /**
+         * Decompresses the next bytes of the member opened
+         * @param out where the bytes are written
+         * @param offset the index of out where they start
+         * @param length the most bytes written
+         * @return the number of bytes written, -1 at the end of the member
+         * @throws IOException if the member can't be read or is not valid
+         */
+        public int read(byte[] out, int offset, int length)
+                throws IOException {
+            if (outputLeft == 0) {
+                return -1;
+            }
+            length = (int) Math.min(length, outputLeft);
+            int done = 0;
+            try {
+                while (done < length) {
+                    if (inflater.needsInput()) {
+                        feed();
+                    }
+                    int inflated = inflater.inflate(out, offset + done,
+                                                    length - done);
+                    if (inflated == 0 && (inflater.finished()
+                                          || inflater.needsDictionary())) {
+                        throw new EOFException("Truncated gzip member "
+                                               + member);
+                    }
+                    done += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid gzip member " + member, e);
+            }
+            outputLeft -= done;
+            return done;
+        }
+
+        /** Gives the next compressed bytes of the member to the inflater */
+        private void feed() throws IOException {
+            if (inputLeft == 0) {
+                throw new EOFException("Truncated gzip member " + member);
+            }
+            int length = (int) Math.min(compressed.length, inputLeft);
+            file.seek(inputOffset);
+            file.readFully(compressed, 0, length);
+            inputOffset += length;
+            inputLeft -= length;
+            inflater.setInput(compressed, 0, length);
+        }
+
+        /** Frees the native memory of the inflater */
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the index saved for the current version of the document, or
+     * null if there is none
+     */
+    private static GzipIndex load(File indexFile, File doc) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != doc.length()
+                    || in.readLong() != doc.lastModified()) {
+                return null;
+            }
+            var index = new GzipIndex();
+            int noMembers = in.readInt();
+            for (int i = 0; i < noMembers; i++) {
+                long dataOffset = in.readLong();
+                long dataLength = in.readLong();
+                long size = in.readLong();
+                byte[] tail = new byte[in.readUnsignedByte()];
+                in.readFully(tail);
+                index.add(dataOffset, dataLength, size, tail);
+            }
+            return index;
+        } catch (IOException e) {
+            // a damaged index is built again
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index next to the document; the index is still used by this
+     * run if it can't be saved (for example, in a read-only folder)
+     */
+    private void save(File indexFile, File doc) {
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(doc.length());
+            out.writeLong(doc.lastModified());
+            out.writeInt(noMembers);
+            for (int i = 0; i < noMembers; i++) {
+                out.writeLong(dataOffsets[i]);
+                out.writeLong(dataLengths[i]);
+                out.writeLong(offsets[i + 1] - offsets[i]);
+                out.writeByte(tails[i].length);
+                out.write(tails[i]);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            return;
+        }
+
+        try {
+            // the readers never see a half written index
+            Files.move(temporary.toPath(), indexFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Decompresses the whole document once, member by member, checking the
+     * CRC and the size of each of them
+     */
+    private static GzipIndex build(File doc) throws IOException {
+        var index = new GzipIndex();
+        var inflater = new Inflater(true);
+        var crc = new CRC32();
+        byte[] output = new byte[CHUNK];
+        byte[] tail = new byte[TAIL_BYTES];
+
+        try (var in = new Input(doc)) {
+            while (in.skipPadding()) {
+                in.readHeader();
+                long dataOffset = in.position();
+                inflater.reset();
+                crc.reset();
+                long size = 0;
+                int tailLength = 0;
+
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        in.feed(inflater);
+                    }
+                    int inflated;
+                    try {
+                        inflated = inflater.inflate(output);
+                    } catch (DataFormatException e) {
+                        throw new IOException("Invalid gzip document "
+                                              + doc, e);
+                    }
+                    crc.update(output, 0, inflated);
+                    size += inflated;
+                    tailLength = keepTail(tail, tailLength, output,
+                                          inflated);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Invalid gzip document " + doc);
+                    }
+                }
+                in.consumed(inflater.getRemaining());
+                long dataLength = in.position() - dataOffset;
+
+                if ((int) in.readTrailerInt() != (int) crc.getValue()
+                        || (int) in.readTrailerInt() != (int) size) {
+                    throw new IOException("Corrupted gzip member in " + doc);
+                }
+                index.add(dataOffset, dataLength, size,
+                          Arrays.copyOf(tail, tailLength));
+            }
+        } finally {
+            inflater.end();
+        }
+        return index;
+    }
+
+    /**
+     * Keeps the last bytes of a member in tail, in their order
+     * @return the number of bytes kept
+     */
+    private static int keepTail(byte[] tail, int tailLength, byte[] output,
+                                int inflated) {
+        if (inflated >= TAIL_BYTES) {
+            System.arraycopy(output, inflated - TAIL_BYTES, tail, 0,
+                             TAIL_BYTES);
+            return TAIL_BYTES;
+        }
+        int kept = Math.min(tailLength, TAIL_BYTES - inflated);
+        System.arraycopy(tail, tailLength - kept, tail, 0, kept);
+        System.arraycopy(output, 0, tail, kept, inflated);
+        return kept + inflated;
+    }
+
+    private void add(long dataOffset, long dataLength, long size,
+                     byte[] tail) {
+        if (noMembers == dataOffsets.length) {
+            int capacity = 2 * noMembers;
+            dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+            dataLengths = Arrays.copyOf(dataLengths, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+            tails = Arrays.copyOf(tails, capacity);
+        }
+        dataOffsets[noMembers] = dataOffset;
+        dataLengths[noMembers] = dataLength;
+        tails[noMembers] = tail;
+        offsets[noMembers + 1] = offsets[noMembers] + size;
+        noMembers++;
+    }
+
+    /** The compressed bytes of a document, read in chunks */
+    private static final class Input implements AutoCloseable {
+        private final RandomAccessFile file;
+        private final byte[] chunk = new byte[CHUNK];
+        /** the offset in the file of the first byte of the chunk */
+        private long chunkStart;
+        private int pos;
+        private int limit;
+
+        Input(File doc) throws IOException {
+            file = new RandomAccessFile(doc, "r");
+        }
+
+        long position() {
+            return chunkStart + pos;
+        }
+
+        /**
+         * Skips the zeros which some tools write after the last member
+         * @return whether another member follows
+         */
+        boolean skipPadding() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return false;
+                }
+                if (chunk[pos] != 0) {
+                    return true;
+                }
+                pos++;
+            }
+        }
+
+        /** Reads a member header, up to its deflate data */
+        void readHeader() throws IOException {
+            if (readByte() != 0x1f || readByte() != 0x8b
+                    || readByte() != 8) {
+                throw new IOException("Not a gzip member at " + position());
+            }
+            int flags = readByte();
+            // the modification time, the extra flags and the system
+            skip(6);
+            if ((flags & FEXTRA) != 0) {
+                skip(readByte() | readByte() << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte() != 0) {
+                    // the name of the original file is not needed
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte() != 0) {
+                    // nor its comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                skip(2);
+            }
+        }
+
+        /** Gives the rest of the chunk (read if needed) to the inflater */
+        void feed(Inflater inflater) throws IOException {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Truncated gzip document");
+            }
+            inflater.setInput(chunk, pos, limit - pos);
+            pos = limit;
+        }
+
+        /**
+         * Moves back over the bytes given to the inflater but not used
+         * @param remaining the bytes left in the input of the inflater
+         */
+        void consumed(int remaining) {
+            pos -= remaining;
+        }
+
+        /** Reads a little endian integer from the trailer of a member */
+        long readTrailerInt() throws IOException {
+            return readByte() | readByte() << 8 | readByte() << 16
+                   | (long) readByte() << 24;
+        }
+
+        private int readByte() throws IOException {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Truncated gzip document");
+            }
+            return chunk[pos++] & 0xFF;
+        }
+
+        private void skip(int bytes) throws IOException {
+            for (int i = 0; i < bytes; i++) {
+                readByte();
+            }
+        }
+
+        /** @return false at the end of the file */
+        private boolean fill() throws IOException {
+            chunkStart += limit;
+            pos = 0;
+            limit = Math.max(0, file.read(chunk));
+            return limit > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
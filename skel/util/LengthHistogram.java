@@ -0,0 +1,219 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntToDoubleFunction;
+
+
+/**
+ * The number of appearances for each word length, kept in a primitive array
+ * indexed by the length (the lengths are small and dense, so there is no
+ * need for a hash object and for boxing every counter); the rare lengths of
+ * at least DENSE_LIMIT (huge tokens) are kept in a sorted map, so they don't
+ * grow the array
+ */
+public class LengthHistogram {
+    /** the lengths from here on are not kept in the array */
+    public static final int DENSE_LIMIT = 1 << 12;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** counts[len] = the number of words with the length len */
+    private int[] counts;
+    /** the counters of the lengths over the array, null while none */
+    private TreeMap<Integer, Integer> sparse;
+    /** the greatest length with at least one appearance (0 if empty) */
+    private int maxLength;
+
+    public LengthHistogram() {
+        counts = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Counts one more word with the given length
+     * @param length the length of the word (must be positive)
+     */
+    public void increment(int length) {
+        add(length, 1);
+    }
+
+    /**
+     * Counts more words with the same length
+     * @param length the length of the words (must be positive)
+     * @param apps how many words are added
+     */
+    public void add(int length, int apps) {
+        if (length >= DENSE_LIMIT) {
+            if (sparse == null) {
+                sparse = new TreeMap<>();
+            }
+            sparse.merge(length, apps, Integer::sum);
+            if (length > maxLength) {
+                maxLength = length;
+            }
+            return;
+        }
+        if (length >= counts.length) {
+            counts = Arrays.copyOf(counts, grownCapacity(length));
+        }
+        counts[length] += apps;
+        if (length > maxLength) {
+            maxLength = length;
+        }
+    }
+
+    /**
+     * @param length a length which must fit the array
+     * @return the new size of the array, never over DENSE_LIMIT
+     */
+    private int grownCapacity(int length) {
+        return Math.min(DENSE_LIMIT,
+                        Math.max(length + 1, counts.length * 2));
+    }
+
+    /**
+     * Uncounts a word which was counted before; nothing is done if no word
+     * with this length is counted
+     * @param length the length of the word
+     */
+    public void decrement(int length) {
+        if (get(length) <= 0) {
+            return;
+        }
+        if (length >= DENSE_LIMIT) {
+            if (sparse.merge(length, -1, Integer::sum) == 0) {
+                sparse.remove(length);
+            }
+        } else {
+            counts[length]--;
+        }
+        if (length != maxLength || get(length) != 0) {
+            return;
+        }
+
+        if (sparse != null && !sparse.isEmpty()) {
+            maxLength = sparse.lastKey();
+            return;
+        }
+        maxLength = Math.min(maxLength, counts.length - 1);
+        while (maxLength > 0 && counts[maxLength] == 0) {
+            maxLength--;
+        }
+    }
+
+    /**
+     * Adds all the counters of another histogram to this one
+     * @param other the histogram which is merged, it remains unchanged
+     */
+    public void merge(LengthHistogram other) {
+        int otherMax = Math.min(other.maxLength, other.counts.length - 1);
+        if (otherMax >= counts.length) {
+            counts = Arrays.copyOf(counts, grownCapacity(otherMax));
+        }
+        int[] otherCounts = other.counts;
+        for (int len = 1; len <= otherMax; len++) {
+            counts[len] += otherCounts[len];
+        }
+        if (other.sparse != null) {
+            for (Map.Entry<Integer, Integer> entry : other.sparse.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+        if (other.maxLength > maxLength) {
+            maxLength = other.maxLength;
+        }
+    }
+
+    /**
+     * @param length a word length
+     * @return the number of words with this length
+     */
+    public int get(int length) {
+        if (length < counts.length) {
+            return counts[length];
+        }
+        if (length < DENSE_LIMIT || sparse == null) {
+            return 0;
+        }
+        return sparse.getOrDefault(length, 0);
+    }
+
+    /**
+     * @param length a word length (0 for starting from the beginning)
+     * @return the smallest length greater than the given one which has at
+     * least one appearance, or 0 if there is none
+     */
+    public int nextLength(int length) {
+        int dense = Math.min(maxLength, counts.length - 1);
+        for (int len = length + 1; len <= dense; len++) {
+            if (counts[len] != 0) {
+                return len;
+            }
+        }
+        if (sparse == null) {
+            return 0;
+        }
+        Integer next = sparse.higherKey(length);
+        return next == null ? 0 : next;
+    }
+
+    /**
+     * @param weights weights[len] for each length under DENSE_LIMIT
+     * @param sparseWeight the weights of the longer lengths
+     * @return the sum of weight * apps over all the lengths, added in the
+     * increasing order of the lengths
+     */
+    public double dot(double[] weights, IntToDoubleFunction sparseWeight) {
+        double sum = 0.0;
+        int dense = Math.min(maxLength, counts.length - 1);
+        for (int len = 1; len <= dense; len++) {
+            sum += weights[len] * counts[len];
+        }
+        if (sparse != null) {
+            for (Map.Entry<Integer, Integer> entry : sparse.entrySet()) {
+                sum += sparseWeight.applyAsDouble(entry.getKey())
+                       * entry.getValue();
+            }
+        }
+        return sum;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return how many lengths are kept in the sorted map (over the array)
+     */
+    public int getSparseCount() {
+        return sparse == null ? 0 : sparse.size();
+    }
+
+    /**
+     * @return the total number of words counted
+     */
+    public long getTotal() {
+        long total = 0;
+        int dense = Math.min(maxLength, counts.length - 1);
+        for (int len = 1; len <= dense; len++) {
+            total += counts[len];
+        }
+        if (sparse != null) {
+            for (int apps : sparse.values()) {
+                total += apps;
+            }
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return maxLength == 0;
+    }
+
+    /** Removes all the counters, keeping the allocated array */
+    public void clear() {
+        Arrays.fill(counts, 0, Math.min(maxLength, counts.length - 1) + 1, 0);
+        sparse = null;
+        maxLength = 0;
+    }
+}
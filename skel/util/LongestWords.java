@@ -0,0 +1,160 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * The distinct longest words of a document (or of a part of it); at most
+ * limit words are kept, the first ones offered, so the memory used stays
+ * constant no matter how many words have the maximum length. With the
+ * limit EXACT all the distinct longest words are kept. A word of more than
+ * MAX_WORD_BYTES is kept as a placeholder: its first bytes, a '\0' (always
+ * a separator, so never inside a word) and its length.
+ */
+public class LongestWords {
+    /** the limit which keeps all the distinct longest words */
+    public static final int EXACT = 0;
+    /** the limit used when none is configured */
+    public static final int DEFAULT_LIMIT = 16;
+    /** the longest word (in UTF-8 bytes) kept with all its letters */
+    public static final int MAX_WORD_BYTES = 1 << 16;
+
+    /** the maximum number of words kept, EXACT for no maximum */
+    private final int limit;
+    /**
+     * the length of the words kept, in characters (code points), 0 if no
+     * word was offered
+     */
+    private int length;
+    /** the words kept, in the order in which they were offered */
+    private final Set<String> words;
+
+    public LongestWords() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit the maximum number of words kept, EXACT for all of them
+     */
+    public LongestWords(int limit) {
+        this.limit = limit;
+        words = new LinkedHashSet<>();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the length of the longest words (0 if there are none)
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int size() {
+        return words.size();
+    }
+
+    /**
+     * @return how many more words of the current length can be kept
+     */
+    public int remaining() {
+        return limit == EXACT ? Integer.MAX_VALUE : limit - words.size();
+    }
+
+    /**
+     * @param wordLength the length of a word
+     * @return if a word with this length would be kept, supposing it's not
+     * a duplicate (lets the caller skip building the string)
+     */
+    public boolean accepts(int wordLength) {
+        return wordLength > length
+               || (wordLength == length && remaining() > 0);
+    }
+
+    /**
+     * Offers a word; it is kept if it's longer than the ones kept so far
+     * (which are dropped) or if it has the same length, it's not already
+     * kept and the limit isn't reached
+     * @param word the word which is offered
+     */
+    public void offer(String word) {
+        int wordLength = lengthOf(word);
+        if (wordLength > length) {
+            words.clear();
+            length = wordLength;
+        }
+        if (wordLength == length && remaining() > 0) {
+            words.add(word);
+        }
+    }
+
+    /**
+     * @param prefix the first MAX_WORD_BYTES bytes of a longer word (or
+     * fewer, for not cutting a character)
+     * @param length the length of the whole word, in characters
+     * @return the placeholder kept for the word
+     */
+    public static String placeholder(String prefix, int length) {
+        return prefix + '\0' + length;
+    }
+
+    /**
+     * @param word a word or a placeholder
+     * @return the length of the word, in characters
+     */
+    public static int lengthOf(String word) {
+        int end = word.indexOf('\0');
+        return end < 0 ? word.codePointCount(0, word.length())
+                       : Integer.parseInt(word.substring(end + 1));
+    }
+
+    /**
+     * Offers all the words kept by another tracker
+     * @param other the tracker which is merged, it remains unchanged
+     */
+    public void merge(LongestWords other) {
+        if (other.length < length) {
+            return;
+        }
+        for (String word : other.words) {
+            offer(word);
+        }
+    }
+
+    /**
+     * Offers all the words of a collection
+     * @param others the words which are offered
+     */
+    public void addAll(Collection<String> others) {
+        for (String word : others) {
+            offer(word);
+        }
+    }
+
+    /**
+     * @return a read-only view of the words kept
+     */
+    public Set<String> getWords() {
+        return Collections.unmodifiableSet(words);
+    }
+
+    /**
+     * @return a new list with the words kept
+     */
+    public List<String> toList() {
+        return new ArrayList<>(words);
+    }
+
+    /** Removes all the words, the length becomes 0 */
+    public void clear() {
+        words.clear();
+        length = 0;
+    }
+}
@@ -0,0 +1,155 @@
+package util;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Measurements of a run: the wall-clock time of each step of the Solver,
+ * the counters of each worker and the activity of the garbage collector;
+ * it exists only when the metrics are requested, so a run without them pays
+ * just a null check per task
+ */
+public class Metrics {
+    private static final ThreadMXBean THREADS
+        = ManagementFactory.getThreadMXBean();
+
+    /** [{phase name : nanoseconds}], in the order the phases ran */
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final List<WorkerStats> workers = new ArrayList<>();
+
+    private final long startNanos;
+    private final long gcCountAtStart;
+    private final long gcMillisAtStart;
+
+    public Metrics() {
+        startNanos = System.nanoTime();
+        gcCountAtStart = gcCount();
+        gcMillisAtStart = gcMillis();
+    }
+
+    /**
+     * Runs a step of the Solver and keeps its duration
+     * @param name the name of the step
+     * @param step the step to be run
+     */
+    public void time(String name, Runnable step) {
+        long begin = System.nanoTime();
+        step.run();
+        phaseNanos.merge(name, System.nanoTime() - begin, Long::sum);
+    }
+
+    /**
+     * Creates the counters for a worker; they are reported with the others
+     * @param phase the step in which the worker runs
+     * @param workerId the id of the worker
+     */
+    public synchronized WorkerStats newWorkerStats(String phase,
+                                                   int workerId) {
+        WorkerStats stats = new WorkerStats(phase, workerId);
+        workers.add(stats);
+        return stats;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or 0 if the
+     * virtual machine doesn't measure them
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS)
+                .getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    /**
+     * Writes the summary of the run as a JSON object
+     * @param fileName the file where the summary is written
+     */
+    public void writeJson(String fileName) {
+        long totalNanos = System.nanoTime() - startNanos;
+        long words = 0;
+        long bytes = 0;
+        long allocated = 0;
+        for (WorkerStats stats : workers) {
+            if (stats.getPhase().equals("map")) {
+                words += stats.getWords();
+                bytes += stats.getBytesScanned();
+            }
+            allocated += stats.getAllocatedBytes();
+        }
+        long mapNanos = phaseNanos.getOrDefault("solveMapTasks", 0L);
+
+        try (Writer writer = new FileWriter(fileName)) {
+            writer.write("{\n  \"totalMillis\": " + millis(totalNanos));
+            writer.write(",\n  \"phases\": {");
+            String comma = "";
+            for (var phase : phaseNanos.entrySet()) {
+                writer.write(comma + "\n    \"" + phase.getKey() + "\": "
+                    + millis(phase.getValue()));
+                comma = ",";
+            }
+            writer.write("\n  },\n  \"words\": " + words);
+            writer.write(",\n  \"bytesScanned\": " + bytes);
+            writer.write(",\n  \"wordsPerSecond\": "
+                + (mapNanos == 0 ? 0 : (long) (words * 1e9 / mapNanos)));
+            writer.write(",\n  \"gc\": {\"count\": "
+                + (gcCount() - gcCountAtStart)
+                + ", \"millis\": " + (gcMillis() - gcMillisAtStart)
+                + ", \"workersAllocatedBytes\": " + allocated + "}");
+            writer.write(",\n  \"workers\": [");
+            comma = "";
+            for (WorkerStats stats : workers) {
+                long phaseTime = phaseNanos.getOrDefault(
+                    stats.getPhase().equals("map") ? "solveMapTasks"
+                                                   : "solveReduceTasks", 0L);
+                writer.write(comma + "\n    {\"phase\": \"" + stats.getPhase()
+                    + "\", \"id\": " + stats.getWorkerId()
+                    + ", \"tasks\": " + stats.getTasks()
+                    + ", \"bytesScanned\": " + stats.getBytesScanned()
+                    + ", \"words\": " + stats.getWords()
+                    + ", \"busyMillis\": " + millis(stats.getBusyNanos())
+                    + ", \"idleMillis\": "
+                    + millis(Math.max(phaseTime - stats.getBusyNanos(), 0))
+                    + ", \"allocatedBytes\": " + stats.getAllocatedBytes()
+                    + "}");
+                comma = ",";
+            }
+            writer.write("\n  ]\n}\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,199 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+
+/**
+ * Writes text into a file through one large direct buffer, with the numbers
+ * formatted straight into the buffer (no String, no Formatter) in the usual
+ * case; the text is encoded in the default charset, as a FileWriter does
+ */
+public class OutputBuffer implements AutoCloseable {
+    private static final int CAPACITY = 1 << 20;
+    /** the most bytes taken by a number (a long or a fixed point value) */
+    private static final int MAX_NUMBER_BYTES = 64;
+    /** the most decimals handled without the Formatter */
+    private static final int MAX_DECIMALS = 6;
+    private static final long[] POWERS_OF_10 = {
+        1, 10, 100, 1_000, 10_000, 100_000, 1_000_000
+    };
+    /**
+     * the values (multiplied by 10^decimals) from here on are formatted by
+     * the Formatter: a double over it has too few bits after the point to
+     * tell on which side of a tie it is
+     */
+    private static final double MAX_SCALED = 0x1p46;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CAPACITY);
+    /** the digits of a number, written backwards */
+    private final byte[] digits = new byte[MAX_NUMBER_BYTES];
+    /**
+     * whether the Formatter writes the numbers in the ASCII digits with a
+     * point, as this class does
+     */
+    private final boolean plainDigits;
+    private final Charset charset = Charset.defaultCharset();
+    /** whether the charset encodes the ASCII characters as single bytes */
+    private final boolean asciiCompatible;
+
+    /**
+     * @param fileName the file written, truncated if it exists
+     * @throws IOException if the file can't be opened
+     */
+    public OutputBuffer(String fileName) throws IOException {
+        channel = FileChannel.open(Path.of(fileName),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        var symbols = DecimalFormatSymbols.getInstance(
+            Locale.getDefault(Locale.Category.FORMAT));
+        plainDigits = symbols.getDecimalSeparator() == '.'
+                      && symbols.getZeroDigit() == '0';
+
+        char[] ascii = new char[0x80];
+        for (int c = 0; c < ascii.length; c++) {
+            ascii[c] = (char) c;
+        }
+        byte[] encoded = new String(ascii).getBytes(charset);
+        boolean sameBytes = encoded.length == ascii.length;
+        for (int c = 0; sameBytes && c < ascii.length; c++) {
+            sameBytes = encoded[c] == c;
+        }
+        asciiCompatible = sameBytes;
+    }
+
+    /** Writes the characters of a string */
+    public void put(String text) throws IOException {
+        int length = text.length();
+        if (length > CAPACITY || !asciiCompatible) {
+            putEncoded(text);
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                putEncoded(text.substring(i));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    /** Writes an ASCII character */
+    public void put(char c) throws IOException {
+        if (!asciiCompatible) {
+            putEncoded(String.valueOf(c));
+            return;
+        }
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    /** Writes a number in decimal, as Long.toString */
+    public void put(long value) throws IOException {
+        ensure(MAX_NUMBER_BYTES);
+        if (value == Long.MIN_VALUE || !asciiCompatible) {
+            put(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        putDigits(value, 0);
+    }
+
+    /**
+     * Writes a number with a fixed number of decimals, as
+     * String.format("%.<decimals>f", value); the Formatter itself is used
+     * for the values which can't be rounded by this method with certainty
+     * (too close to a tie, too big, negative or not finite)
+     * @param value the number written
+     * @param decimals the number of digits after the point
+     */
+    public void putFixed(double value, int decimals) throws IOException {
+        ensure(MAX_NUMBER_BYTES);
+        if (plainDigits && asciiCompatible && decimals <= MAX_DECIMALS
+                && Double.doubleToRawLongBits(value) >= 0) {
+            double scaled = value * POWERS_OF_10[decimals];
+            if (scaled < MAX_SCALED) {
+                double units = Math.floor(scaled);
+                double fraction = scaled - units;
+                // the Formatter rounds the shortest decimal representation
+                // of the value half up, which may be on the other side of a
+                // tie than the value itself; both are within an ulp
+                double margin = 4 * Math.ulp(scaled);
+                if (Math.abs(fraction - 0.5) > margin) {
+                    long rounded = (long) units + (fraction > 0.5 ? 1 : 0);
+                    putDigits(rounded, decimals);
+                    return;
+                }
+            }
+        }
+        put(String.format("%." + decimals + "f", value));
+    }
+
+    /** Writes the remaining bytes and closes the file */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a non-negative number, with a point before its last digits
+     * @param value the number written
+     * @param decimals how many of its digits are after the point
+     */
+    private void putDigits(long value, int decimals) {
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0 || count <= decimals);
+        for (int i = count - 1; i >= 0; i--) {
+            buffer.put(digits[i]);
+            if (i == decimals && i != 0) {
+                buffer.put((byte) '.');
+            }
+        }
+    }
+
+    private void putEncoded(String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /** Makes room for the given number of bytes, if it fits the buffer */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < Math.min(bytes, CAPACITY)) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
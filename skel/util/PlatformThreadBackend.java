@@ -0,0 +1,37 @@
+package util;
+
+import java.util.List;
+
+
+/**
+ * One new platform thread for each unit, the number of units being exactly
+ * the number of workers requested
+ */
+public class PlatformThreadBackend implements ExecutionBackend {
+    @Override
+    public int units(int p, int noTasks) {
+        return p;
+    }
+
+    @Override
+    public void runAll(List<? extends Runnable> units) {
+        Thread[] threads = new Thread[units.size()];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(units.get(i));
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,274 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+
+/**
+ * The characters which separate the words of the documents, read as UTF-8:
+ * the ASCII separators are kept in a table indexed by byte, as the map
+ * workers always did, and the non-ASCII ones (if any) as code points, with
+ * their lead bytes marked, so the ASCII text never has to be decoded.
+ *
+ * The bytes of a multibyte character are never separators by themselves,
+ * so with only ASCII separators a word can't end inside a character, and
+ * the length of a word is the number of its bytes which don't continue a
+ * character.
+ */
+public final class Utf8Separators {
+    /** the most bytes that a character takes */
+    public static final int MAX_CHAR_BYTES = 4;
+
+    /** isSeparator[b] for the ASCII bytes */
+    private final boolean[] isSeparator;
+    /** the non-ASCII separators; null if there are none */
+    private final BitSet codePoints;
+    /** whether a non-ASCII separator starts with the byte */
+    private final boolean[] isLead = new boolean[256];
+    /** the description of the non-ASCII separators, "" if none */
+    private final String spec;
+
+    /**
+     * Only the ASCII separators
+     * @param separatorsMask isSeparator[c] for each byte c
+     */
+    public Utf8Separators(boolean[] separatorsMask) {
+        this(separatorsMask, null, "");
+    }
+
+    private Utf8Separators(boolean[] separatorsMask, BitSet codePoints,
+                           String spec) {
+        this.isSeparator = separatorsMask;
+        this.codePoints = codePoints;
+        this.spec = spec;
+        if (codePoints != null) {
+            for (int c = codePoints.nextSetBit(0); c >= 0;
+                    c = codePoints.nextSetBit(c + 1)) {
+                isLead[leadByte(c)] = true;
+            }
+        }
+    }
+
+    /**
+     * Adds non-ASCII separators to the ASCII ones
+     * @param separatorsMask isSeparator[c] for each byte c
+     * @param spec a list separated by commas of: space (the Unicode spaces),
+     * punct (the Unicode punctuation), symbol (the Unicode symbols), U+XXXX
+     * (a code point) or U+XXXX-U+YYYY (a range of code points); the ASCII
+     * characters from the list are ignored
+     * @return the separators
+     * @throws IllegalArgumentException if the list is not valid
+     */
+    public static Utf8Separators parse(boolean[] separatorsMask,
+                                       String spec) {
+        if (spec.isEmpty()) {
+            return new Utf8Separators(separatorsMask);
+        }
+        BitSet codePoints = new BitSet();
+        for (String item : spec.split(",")) {
+            switch (item.trim()) {
+                case "space":
+                    addClass(codePoints, Utf8Separators::isSpace);
+                    break;
+                case "punct":
+                    addClass(codePoints, Utf8Separators::isPunctuation);
+                    break;
+                case "symbol":
+                    addClass(codePoints, Utf8Separators::isSymbol);
+                    break;
+                default:
+                    addRange(codePoints, item.trim());
+            }
+        }
+        // the ASCII separators remain the ones from the table
+        codePoints.clear(0, 0x80);
+        return new Utf8Separators(separatorsMask, codePoints, spec);
+    }
+
+    public boolean[] getMask() {
+        return isSeparator;
+    }
+
+    /** @return the list of the non-ASCII separators, "" if there are none */
+    public String getSpec() {
+        return spec;
+    }
+
+    public boolean hasNonAscii() {
+        return codePoints != null && !codePoints.isEmpty();
+    }
+
+    /**
+     * @param data the buffer with the text
+     * @param index where the character starts
+     * @param limit the index after the last byte which may be read
+     * @return the number of bytes of the separator starting at the index, 0
+     * if there is none (a letter, a continuation byte, or a character cut
+     * by the limit)
+     */
+    public int lengthAt(ByteBuffer data, int index, int limit) {
+        int lead = data.get(index) & 0xFF;
+        if (lead < 0x80) {
+            return isSeparator[lead] ? 1 : 0;
+        }
+        if (!isLead[lead]) {
+            return 0;
+        }
+        int length = sequenceLength(lead);
+        if (index + length > limit) {
+            return 0;
+        }
+        int codePoint = lead & (0xFF >>> (length + 1));
+        for (int i = 1; i < length; i++) {
+            int b = data.get(index + i) & 0xFF;
+            if (!isContinuation(b)) {
+                return 0;
+            }
+            codePoint = codePoint << 6 | b & 0x3F;
+        }
+        return codePoints.get(codePoint) ? length : 0;
+    }
+
+    /**
+     * @param data the buffer with the text
+     * @param start the first index which may be read
+     * @param index the position checked
+     * @return the number of bytes of the separator ending right before the
+     * index, 0 if there is none
+     */
+    public int lengthBefore(ByteBuffer data, int start, int index) {
+        if (index <= start) {
+            return 0;
+        }
+        int last = data.get(index - 1) & 0xFF;
+        if (last < 0x80) {
+            return isSeparator[last] ? 1 : 0;
+        }
+        if (codePoints == null) {
+            return 0;
+        }
+        // the lead byte of the character ending at the index
+        int lead = index - 1;
+        while (lead > start && lead > index - MAX_CHAR_BYTES
+                && isContinuation(data.get(lead) & 0xFF)) {
+            lead--;
+        }
+        int length = index - lead;
+        return lengthAt(data, lead, index) == length ? length : 0;
+    }
+
+    /**
+     * @return whether the byte continues a multibyte character
+     */
+    public static boolean isContinuation(int b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * @return the number of characters whose lead bytes are in [from, to)
+     */
+    public static int codePointCount(ByteBuffer data, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (!isContinuation(data.get(i) & 0xFF)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bytes of the character with the given lead byte
+     * (1 for a stray continuation byte)
+     */
+    private static int sequenceLength(int lead) {
+        if (lead < 0xC0) {
+            return 1;
+        }
+        if (lead < 0xE0) {
+            return 2;
+        }
+        return lead < 0xF0 ? 3 : 4;
+    }
+
+    private static int leadByte(int codePoint) {
+        if (codePoint < 0x800) {
+            return 0xC0 | codePoint >>> 6;
+        }
+        if (codePoint < 0x10000) {
+            return 0xE0 | codePoint >>> 12;
+        }
+        return 0xF0 | codePoint >>> 18;
+    }
+
+    private interface CharClass {
+        boolean contains(int codePoint);
+    }
+
+    private static void addClass(BitSet codePoints, CharClass charClass) {
+        for (int c = 0x80; c <= Character.MAX_CODE_POINT; c++) {
+            if (charClass.contains(c)) {
+                codePoints.set(c);
+            }
+        }
+    }
+
+    private static void addRange(BitSet codePoints, String item) {
+        String[] ends = item.split("-");
+        if (ends.length > 2) {
+            throw new IllegalArgumentException("Not a separator: " + item);
+        }
+        int first = parseCodePoint(ends[0]);
+        int last = ends.length == 2 ? parseCodePoint(ends[1]) : first;
+        for (int c = first; c <= last; c++) {
+            if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                codePoints.set(c);
+            }
+        }
+    }
+
+    private static int parseCodePoint(String text) {
+        try {
+            if (text.startsWith("U+") || text.startsWith("u+")) {
+                int codePoint = Integer.parseInt(text.substring(2), 16);
+                if (Character.isValidCodePoint(codePoint)) {
+                    return codePoint;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Not a code point: " + text);
+    }
+
+    private static boolean isSpace(int c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    private static boolean isPunctuation(int c) {
+        switch (Character.getType(c)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSymbol(int c) {
+        switch (Character.getType(c)) {
+            case Character.MATH_SYMBOL:
+            case Character.CURRENCY_SYMBOL:
+            case Character.MODIFIER_SYMBOL:
+            case Character.OTHER_SYMBOL:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * One virtual thread for each unit, with many more units than workers, so
+ * the blocking file reads of a unit overlap with the work of the others
+ * without occupying an OS thread; the virtual threads exist only from Java
+ * 21, so on older virtual machines a platform thread is used for each unit
+ * instead, with only one unit for each worker (as many OS threads as the
+ * platform backend, not UNITS_PER_WORKER times more)
+ */
+public class VirtualThreadBackend implements ExecutionBackend {
+    /** how many units are created for each worker requested */
+    private static final int UNITS_PER_WORKER = 32;
+
+    private final ExecutorService executor;
+    /** whether the units run on virtual threads */
+    private final boolean virtual;
+
+    public VirtualThreadBackend() {
+        ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+        virtual = virtualExecutor != null;
+        if (virtual) {
+            executor = virtualExecutor;
+        } else {
+            System.err.println("Virtual threads are not available, using"
+                + " a platform thread per worker");
+            executor = Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * The executor is looked up by reflection, so the sources still compile
+     * with older versions of Java
+     * @return the executor, or null if there are no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int units(int p, int noTasks) {
+        int perWorker = virtual ? UNITS_PER_WORKER : 1;
+        return Math.max(1, Math.min(noTasks, p * perWorker));
+    }
+
+    @Override
+    public void runAll(List<? extends Runnable> units) {
+        List<Future<?>> submitted = new ArrayList<>();
+        for (Runnable unit : units) {
+            submitted.add(executor.submit(unit));
+        }
+
+        for (Future<?> future : submitted) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
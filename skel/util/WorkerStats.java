@@ -0,0 +1,67 @@
+package util;
+
+
+/**
+ * The counters of a single worker, written only by the worker's thread and
+ * read after the worker was joined
+ */
+public class WorkerStats {
+    /** the step in which the worker ran (map or reduce) */
+    private final String phase;
+    private final int workerId;
+    private long tasks;
+    private long bytesScanned;
+    private long words;
+    private long busyNanos;
+    private long allocatedBytes;
+
+    public WorkerStats(String phase, int workerId) {
+        this.phase = phase;
+        this.workerId = workerId;
+    }
+
+    public void addTask() {
+        tasks++;
+    }
+
+    public void addScanned(long bytes, long words) {
+        bytesScanned += bytes;
+        this.words += words;
+    }
+
+    public void addBusyNanos(long nanos) {
+        busyNanos += nanos;
+    }
+
+    public void addAllocatedBytes(long bytes) {
+        allocatedBytes += bytes;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    public long getTasks() {
+        return tasks;
+    }
+
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    public long getWords() {
+        return words;
+    }
+
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}